@@ -9,11 +9,12 @@ package bibtex;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Iterator;
 
+import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexEntry;
 import bibtex.dom.BibtexFile;
 import bibtex.dom.BibtexString;
+import bibtex.parser.BibtexEntryReader;
 import bibtex.parser.BibtexParser;
 import bibtex.parser.ParseException;
 
@@ -33,10 +34,11 @@ public class ExtractAuthors {
         try {
             FileReader in = new FileReader(args[0]);
             BibtexParser parser = new BibtexParser(false);
-            BibtexFile file=new BibtexFile();
-            parser.parse(file,in);
-            for(Iterator it=file.getEntries().iterator();it.hasNext();){
-                Object potentialEntry = it.next();
+            BibtexFile factory=new BibtexFile();
+            // we don't need the whole file in memory, so we read it entry by entry.
+            BibtexEntryReader reader = parser.openEntryReader(factory,in);
+            BibtexAbstractEntry potentialEntry;
+            while((potentialEntry=reader.read())!=null){
                 if(!(potentialEntry instanceof BibtexEntry)) continue;
                 BibtexEntry entry = (BibtexEntry) potentialEntry;
                 BibtexString authorString=(BibtexString) entry.getFieldValue("author");
@@ -6,12 +6,22 @@
  */
 package bibtex;
 
-import java.io.FileReader;
-import java.io.PrintWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 
 import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexWriter;
+import bibtex.dom.BibtexSnapshot;
+import bibtex.expansions.AbstractExpander;
+import bibtex.expansions.BibtexPersonListCache;
 import bibtex.expansions.CrossReferenceExpander;
 import bibtex.expansions.ExpansionException;
+import bibtex.expansions.ExpansionPipeline;
 import bibtex.expansions.MacroReferenceExpander;
 import bibtex.expansions.PersonListExpander;
 import bibtex.parser.BibtexParser;
@@ -24,16 +34,35 @@ import bibtex.parser.BibtexParser;
  * @author henkel
  */
 public final class Main {
+
+	/**
+	 * The number of distinct author and editor fields whose person lists we
+	 * keep around for sharing.
+	 */
+	private static final int PERSON_LIST_CACHE_SIZE = 100000;
  
 	public static void usage() {
 		System.err.println(
 			"\nUsage: bibtex.Main [-expandStringDefinitions]\n"
 				+ "         [-expandAndDropMacroDefinitions] [-expandCrossReferences]\n"
-				+ "         [-expandPersonLists] [-noOutput] <file.bib>\n"
+				+ "         [-inheritCrossReferences] [-expandPersonLists] [-parallel]\n"
+				+ "         [-keepLayout] [-cache] [-encoding <charset>]\n"
+				+ "         [-noOutput] <file.bib>\n"
 				+ "\nNote: Selecting -expandCrossReferences implies that we will\n"
 				+ "      expand the string definitions as well (for consistency).\n"
 				+ "\nNote: Selecting -expandPersonLists implies that we will expand\n"
-				+ "      the string definitions as well (for consistency)."
+				+ "      the string definitions as well (for consistency).\n"
+				+ "\nNote: -inheritCrossReferences is -expandCrossReferences, but the entries"
+				+ "\n      look up the fields they don't have in the crossreferenced entry"
+				+ "\n      instead of getting copies.\n"
+				+ "\nNote: -parallel parses, expands and prints the file with one thread per processor."
+				+ "\nNote: -keepLayout copies the entries that the expansions don't change"
+				+ "\n      byte by byte from <file.bib> (the output is in the encoding of the file),"
+				+ "\n      unless <file.bib> changes while this runs."
+				+ "\nNote: -cache keeps the result in <file.bib>.snapshot and uses it as long as"
+				+ "\n      neither the file nor the other options change."
+				+ "\nNote: -encoding is the charset of <file.bib> and of the output; the default"
+				+ "\n      is the platform's default charset.\n"
 				+ "\nThe output will be given on stdout, errors and messages will be printed to stderr.\n\n");
 	}
 
@@ -49,8 +78,12 @@ public final class Main {
 		boolean expandMacros = false;
 		boolean dropMacros = false;
 		boolean expandCrossrefs = false;
+		boolean inheritCrossrefs = false;
 		boolean expandPersonLists = false;
 		boolean noOutput = false;
+		boolean cache = false;
+		int parallelism = 1;
+		Charset charset = Charset.defaultCharset();
 		for (int argsIndex = 0; argsIndex < args.length - 1; argsIndex++) {
 			String argument = args[argsIndex];
 			if (argument.equals("-expandStringDefinitions")) {
@@ -59,8 +92,25 @@ public final class Main {
 				expandMacros = dropMacros = true;
 			} else if (argument.equals("-expandCrossReferences")) {
 				expandCrossrefs = expandMacros = true;
+			} else if (argument.equals("-inheritCrossReferences")) {
+				expandCrossrefs = inheritCrossrefs = expandMacros = true;
 			} else if (argument.equals("-expandPersonLists")) {
 				expandPersonLists = expandMacros = true;
+			} else if (argument.equals("-parallel")) {
+				parser.setParallelism(Runtime.getRuntime().availableProcessors());
+				parallelism = Runtime.getRuntime().availableProcessors();
+			} else if (argument.equals("-keepLayout")) {
+				parser.setKeepSourceSpans(true);
+			} else if (argument.equals("-cache")) {
+				cache = true;
+			} else if (argument.equals("-encoding") && argsIndex < args.length - 2) {
+				try {
+					charset = Charset.forName(args[++argsIndex]);
+				} catch (IllegalArgumentException e) {
+					System.err.println("Unsupported encoding: " + args[argsIndex]);
+					usage();
+					return;
+				}
 			} else if(argument.equals("-noOutput")){
 				noOutput = true;
 			} else {
@@ -69,10 +119,26 @@ public final class Main {
 			}
 		}
 
+		String filename = args[args.length - 1];
+		Path snapshot = Paths.get(filename + ".snapshot");
+		byte[] snapshotKey = null;
+		if (cache) {
+			try {
+				snapshotKey = BibtexSnapshot.key(Paths.get(filename), "" + expandMacros + dropMacros
+					+ expandCrossrefs + inheritCrossrefs + expandPersonLists + charset.name());
+				if (BibtexSnapshot.load(bibtexFile, snapshotKey, snapshot)) {
+					System.err.println("Loaded \"" + snapshot + "\".");
+					print(bibtexFile, noOutput, parallelism, charset);
+					return;
+				}
+			} catch (IOException e) {
+				System.err.println("Can't use \"" + snapshot + "\": " + e);
+			}
+		}
+
 		try {
-			String filename = args[args.length - 1];
 			System.err.println("Parsing \"" + filename + "\" ... ");
-			parser.parse(bibtexFile, new FileReader(args[args.length - 1]));
+			parser.parse(bibtexFile, Paths.get(filename), charset);
 		} catch (Exception e) {
 			System.err.println("Fatal exception: ");
 			e.printStackTrace();
@@ -81,35 +147,47 @@ public final class Main {
 			printNonFatalExceptions(parser.getExceptions());
 		}
 		try {
+			// the expanders run in a single pass over the entries.
+			ArrayList<AbstractExpander> expanders = new ArrayList<AbstractExpander>();
+			String names = "";
+			PersonListExpander personListExpander = null;
 			if (expandMacros) {
-				System.err.println("\n\nExpanding macros ...");
-				MacroReferenceExpander expander =
-					new MacroReferenceExpander(true, true, dropMacros,false);
-				expander.expand(bibtexFile);
-				printNonFatalExceptions(expander.getExceptions());
-				
+				expanders.add(new MacroReferenceExpander(true, true, dropMacros, false));
+				names += "macros";
 			}
 			if (expandCrossrefs) {
-				System.err.println("\n\nExpanding crossrefs ...");
-				CrossReferenceExpander expander = new CrossReferenceExpander(false);
-				expander.expand(bibtexFile);
-				printNonFatalExceptions(expander.getExceptions());
+				expanders.add(new CrossReferenceExpander(false, inheritCrossrefs));
+				names += (names.length() == 0 ? "" : ", ") + "crossrefs";
 			}
 			if (expandPersonLists) {
-				System.err.println("\n\nExpanding person lists ...");
-				PersonListExpander expander = new PersonListExpander(true, true, false);
-				expander.expand(bibtexFile);
-				printNonFatalExceptions(expander.getExceptions());
+				personListExpander = new PersonListExpander(true, true, false);
+				personListExpander.setPersonListCache(new BibtexPersonListCache(PERSON_LIST_CACHE_SIZE));
+				expanders.add(personListExpander);
+				names += (names.length() == 0 ? "" : ", ") + "person lists";
+			}
+			if (!expanders.isEmpty()) {
+				System.err.println("\n\nExpanding " + names + " ...");
+				ExpansionPipeline pipeline =
+					new ExpansionPipeline(expanders.toArray(new AbstractExpander[expanders.size()]));
+				pipeline.setParallelism(parallelism);
+				pipeline.expand(bibtexFile);
+				for (int i = 0; i < expanders.size(); i++)
+					printNonFatalExceptions(expanders.get(i).getExceptions());
+				if (personListExpander != null)
+					System.err.println("\n" + personListExpander.getPersonListCache());
 			}
 		} catch (ExpansionException e1) {
 			e1.printStackTrace();
 			return;
 		}
-		if(noOutput) return;
-		System.err.println("\n\nGenerating output ...");
-		PrintWriter out = new PrintWriter(System.out);
-		bibtexFile.printBibtex(out);
-		out.flush();
+		if (snapshotKey != null) {
+			try {
+				BibtexSnapshot.save(bibtexFile, snapshotKey, snapshot);
+			} catch (IOException e) {
+				System.err.println("Can't write \"" + snapshot + "\": " + e);
+			}
+		}
+		print(bibtexFile, noOutput, parallelism, charset);
 		
 		//System.gc();
 		//System.err.println("Memory used:"+(Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory()));
@@ -118,6 +196,23 @@ public final class Main {
 		//try { System.in.read(); } catch(Exception e){ e.printStackTrace();}
 	}
 
+	private static void print(BibtexFile bibtexFile, boolean noOutput, int parallelism, Charset charset) {
+		if(noOutput) return;
+		System.err.println("\n\nGenerating output ...");
+		// a FileChannel on stdout takes gathering writes; the output is in the
+		// charset of the input, so a file without expansions comes out as it
+		// went in.
+		System.out.flush();
+		BibtexWriter out = new BibtexWriter(new FileOutputStream(FileDescriptor.out).getChannel(), charset);
+		out.setParallelism(parallelism);
+		try {
+			out.write(bibtexFile);
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	private static void printNonFatalExceptions(Exception[] exceptions) {
 		if (exceptions.length > 0) {
 			System.err.println("Non-fatal exceptions: ");
@@ -0,0 +1,101 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexStringArena;
+import bibtex.dom.BibtexSymbolTable;
+import bibtex.expansions.MacroReferenceExpander;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Measures how much heap a parsed bibtex file retains per entry. For
+ * comparison, it also measures what storing the fields of each entry in a
+ * LinkedHashMap (as BibtexEntry used to do) would add on top of the values.
+ * With -arena or -directArena, the long strings go into a BibtexStringArena on
+ * or off the heap. With -expandMacros, the numbers are for the file after
+ * the MacroReferenceExpander.
+ *
+ * Run it with a fixed heap size (e.g. -Xms2g -Xmx2g), so that the numbers
+ * don't depend on when the heap grows.
+ */
+public class MemoryBench {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: MemoryBench [-arena | -directArena] [-expandMacros] <file.bib>");
+			return;
+		}
+		BibtexStringArena arena = null;
+		boolean expandMacros = false;
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals("-arena"))
+				arena = new BibtexStringArena(false);
+			else if (args[i].equals("-directArena"))
+				arena = new BibtexStringArena(true);
+			else if (args[i].equals("-expandMacros"))
+				expandMacros = true;
+		}
+		long before = usedHeap();
+		BibtexFile file = new BibtexFile(new BibtexSymbolTable(), arena);
+		new BibtexParser(false).parse(file, Paths.get(args[args.length - 1]));
+		long parsed = usedHeap();
+		if (expandMacros) {
+			System.err.println("retained after parsing: " + (parsed - before) / file.getEntries().size()
+				+ " bytes/top level entry");
+			new MacroReferenceExpander(true, true, false, false).expand(file);
+			parsed = usedHeap();
+		}
+
+		int entries = 0, fields = 0;
+		for (BibtexAbstractEntry entry : file.getEntries()) {
+			if (entry instanceof BibtexEntry) {
+				entries++;
+				fields += ((BibtexEntry) entry).getFields().size();
+			}
+		}
+		System.err.println(file.getEntries().size() + " top level entries, " + entries + " entries with " + fields
+			+ " fields.");
+		System.err.println("retained: " + (parsed - before) / file.getEntries().size() + " bytes/top level entry");
+		System.err.println("symbol table: " + file.getSymbolTable());
+		if (arena != null)
+			System.err.println("arena: " + arena + ", " + arena.getCapacity() / file.getEntries().size()
+				+ " bytes/top level entry");
+
+		ArrayList<Map<String, Object>> maps = new ArrayList<Map<String, Object>>(entries);
+		for (BibtexAbstractEntry entry : file.getEntries()) {
+			if (entry instanceof BibtexEntry)
+				maps.add(new LinkedHashMap<String, Object>(((BibtexEntry) entry).getFields()));
+		}
+		long withMaps = usedHeap();
+		System.err.println("a LinkedHashMap of the fields would add: " + (withMaps - parsed) / Math.max(entries, 1)
+			+ " bytes/entry");
+		// keep both alive until we've measured.
+		if (maps.size() + file.getEntries().size() == 0)
+			System.err.println();
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// a few rounds, until the collector doesn't find anything anymore.
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(50);
+			long now = runtime.totalMemory() - runtime.freeMemory();
+			if (now >= used)
+				break;
+			used = now;
+		}
+		return used;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
+import bibtex.dom.BibtexFile;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Measures the parser throughput in MB/s on a given bibtex file, comparing the
+ * Reader based input path with the memory mapped one and the parallel parser.
+ * The parallel parser runs with 1, 2, 4, ... threads, up to the number of
+ * processors or the given maximum, to show how it scales - all threads share
+ * the symbol table of the BibtexFile.
+ * For the sequential runs, it also reports how many bytes were allocated per
+ * top level entry (this includes the model itself).
+ * 
+ * With -synthetic instead of a file name, it measures the lexer on generated
+ * entries with deeply nested braces and very long field values.
+ */
+public class ParserBench {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: ParserBench (<file.bib> | -synthetic) [rounds [maxThreads]]");
+			return;
+		}
+		if (args[0].equals("-synthetic")) {
+			synthetic(args.length > 1 ? Integer.parseInt(args[1]) : 5);
+			return;
+		}
+		Path path = Paths.get(args[0]);
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		double megabytes = new File(args[0]).length() / (1024.0 * 1024.0);
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			long allocated = allocatedBytes();
+			BibtexFile file = new BibtexFile();
+			new BibtexParser(false).parse(file, new FileReader(args[0]));
+			report("reader", megabytes, start, allocated, file);
+
+			start = System.nanoTime();
+			allocated = allocatedBytes();
+			file = new BibtexFile();
+			new BibtexParser(false).parse(file, path);
+			report("mapped", megabytes, start, allocated, file);
+
+			for (int threads = 1;; threads = Math.min(2 * threads, maxThreads)) {
+				start = System.nanoTime();
+				BibtexParser parallelParser = new BibtexParser(false);
+				parallelParser.setParallelism(threads);
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				parallelParser.setForkJoinPool(pool);
+				file = new BibtexFile();
+				try {
+					parallelParser.parse(file, path);
+				} finally {
+					pool.shutdown();
+				}
+				report("parallel, " + threads + " threads", megabytes, start, -1, null);
+				if (threads == maxThreads) {
+					System.err.println("symbol table: " + file.getSymbolTable());
+					break;
+				}
+			}
+		}
+	}
+
+	private static void synthetic(int rounds) throws Exception {
+		StringBuilder nested = new StringBuilder("@misc{nested,\n  note = ");
+		for (int i = 0; i < 100000; i++)
+			nested.append("{x");
+		for (int i = 0; i < 100000; i++)
+			nested.append('}');
+		nested.append("\n}\n");
+		StringBuilder longValues = new StringBuilder();
+		for (int entry = 0; entry < 20; entry++) {
+			longValues.append("@misc{long").append(entry).append(",\n  abstract = {");
+			for (int i = 0; i < 50000; i++)
+				longValues.append("Some words of a {V}ery long abstract. ");
+			longValues.append("},\n  note = \"");
+			for (int i = 0; i < 50000; i++)
+				longValues.append("quoted text ");
+			longValues.append("\"\n}\n");
+		}
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			new BibtexParser(true).parse(new BibtexFile(), new StringReader(nested.toString()));
+			report("nested", nested.length() / (1024.0 * 1024.0), start, -1, null);
+
+			start = System.nanoTime();
+			new BibtexParser(true).parse(new BibtexFile(), new StringReader(longValues.toString()));
+			report("long values", longValues.length() / (1024.0 * 1024.0), start, -1, null);
+		}
+	}
+
+	/**
+	 * @return the number of bytes allocated by the current thread so far, or
+	 *         -1 if the JVM can't tell us.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void report(String mode, double megabytes, long start, long allocated, BibtexFile file) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		String line = mode + ": " + (int) (megabytes / seconds) + " MB/s (" + (int) (seconds * 1000) + " ms)";
+		if (allocated >= 0 && file != null && !file.getEntries().isEmpty())
+			line += ", " + (allocatedBytes() - allocated) / file.getEntries().size() + " bytes/entry allocated";
+		System.err.println(line);
+	}
+}
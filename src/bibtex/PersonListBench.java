@@ -0,0 +1,90 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.util.Random;
+
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.expansions.PersonListExpander;
+
+/**
+ * Measures how fast PersonListExpander parses author fields, in authors per
+ * second. The fields are made up from a fixed seed: one to six authors each,
+ * in the "First von Last", "von Last, First" and "von Last, Jr, First" forms,
+ * with hyphens, tildes, braces and accents. Hardly any two fields are the
+ * same, so this measures parsing rather than the person list cache.
+ */
+public class PersonListBench {
+
+	private static final String[] FIRST = { "Johannes", "J.", "Amer", "Mary~Ann", "Jean-Pierre", "{\\'E}mile",
+		"Ch.", "Karl Heinz", "{\\relax Th}omas", "Li", "O.", "Ana Mar{\\'\\i}a" };
+
+	private static final String[] VON = { "", "", "", "", "von", "de la", "van der", "di", "{d}e" };
+
+	private static final String[] LAST = { "Henkel", "Diwan", "Vall{\\'e}e Poussin", "M{\\\"u}ller",
+		"Smith-Jones", "{Barnes and Noble}", "O'Neil", "Nguyen", "{\\v{C}}apek", "Zhang", "Garc{\\'\\i}a" };
+
+	private static final String[] LINEAGE = { "Jr", "Sr", "III" };
+
+	public static void main(String[] args) throws Exception {
+		int authors = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		for (int round = 0; round < rounds; round++) {
+			BibtexFile bibtexFile = new BibtexFile();
+			int count = makeAuthorFields(bibtexFile, authors);
+			PersonListExpander expander = new PersonListExpander(true, true, false);
+			long start = System.nanoTime();
+			expander.expand(bibtexFile);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.err.println(count + " authors: " + (int) (count / seconds) + " authors/s (" + (int) (seconds * 1000)
+				+ " ms, " + expander.getExceptions().length + " exceptions)");
+		}
+	}
+
+	/**
+	 * @return the number of authors in the fields.
+	 */
+	private static int makeAuthorFields(BibtexFile bibtexFile, int authors) {
+		Random random = new Random(42);
+		int count = 0;
+		StringBuilder field = new StringBuilder();
+		for (int i = 0; count < authors; i++) {
+			field.setLength(0);
+			int n = 1 + random.nextInt(6);
+			for (int j = 0; j < n; j++) {
+				if (j > 0)
+					field.append(" and ");
+				appendName(field, random);
+			}
+			count += n;
+			BibtexEntry entry = bibtexFile.makeEntry("article", "key" + i);
+			entry.setField("author", bibtexFile.makeString(field.toString()));
+			bibtexFile.addEntry(entry);
+		}
+		return count;
+	}
+
+	private static void appendName(StringBuilder field, Random random) {
+		String first = FIRST[random.nextInt(FIRST.length)];
+		String von = VON[random.nextInt(VON.length)];
+		// a number makes most of the fields different.
+		String last = LAST[random.nextInt(LAST.length)] + random.nextInt(1000);
+		switch (random.nextInt(4)) {
+		case 0:
+			field.append(von.length() == 0 ? last : von + " " + last).append(", ").append(first);
+			break;
+		case 1:
+			field.append(von.length() == 0 ? last : von + " " + last).append(", ")
+				.append(LINEAGE[random.nextInt(LINEAGE.length)]).append(", ").append(first);
+			break;
+		default:
+			field.append(first).append(' ');
+			if (von.length() != 0)
+				field.append(von).append(' ');
+			field.append(last);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexWriter;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Measures the output throughput in MB/s (of the written file) on a given
+ * bibtex file, comparing printBibtex() on a PrintWriter with BibtexWriter on
+ * a Writer and on a file channel, sequentially and with one thread per
+ * processor. The file is parsed once, and the output goes to a temporary file
+ * in UTF-8.
+ */
+public class WriterBench {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: WriterBench <file.bib> [rounds]");
+			return;
+		}
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		BibtexFile bibtexFile = new BibtexFile();
+		new BibtexParser(false).parse(bibtexFile, Paths.get(args[0]));
+		Charset utf8 = Charset.forName("UTF-8");
+		File out = File.createTempFile("WriterBench", ".bib");
+		out.deleteOnExit();
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			PrintWriter printWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), utf8)));
+			bibtexFile.printBibtex(printWriter);
+			printWriter.close();
+			report("printBibtex", out, start);
+
+			start = System.nanoTime();
+			BibtexWriter writer = new BibtexWriter(new OutputStreamWriter(new FileOutputStream(out), utf8));
+			writer.write(bibtexFile);
+			writer.close();
+			report("writer", out, start);
+
+			start = System.nanoTime();
+			FileChannel channel = new FileOutputStream(out).getChannel();
+			writer = new BibtexWriter(channel, utf8);
+			writer.write(bibtexFile);
+			writer.close();
+			report("channel", out, start);
+
+			start = System.nanoTime();
+			channel = new FileOutputStream(out).getChannel();
+			writer = new BibtexWriter(channel, utf8);
+			writer.setParallelism(Runtime.getRuntime().availableProcessors());
+			writer.write(bibtexFile);
+			writer.close();
+			report("parallel", out, start);
+		}
+	}
+
+	private static void report(String mode, File out, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		double megabytes = out.length() / (1024.0 * 1024.0);
+		System.err.println(mode + ": " + (int) (megabytes / seconds) + " MB/s (" + (int) (seconds * 1000) + " ms)");
+	}
+}
@@ -17,4 +17,50 @@ public abstract class BibtexAbstractEntry extends BibtexNode {
 		super(file);
 	}
 
+	/**
+	 * The slot of this entry in the entries of its owner file, so that it can be
+	 * removed in constant time - see BibtexEntryList.
+	 */
+	int position = -1;
+
+	/**
+	 * The slot of this entry in the partition of its owner file that holds the
+	 * entries of its kind.
+	 */
+	int partitionPosition = -1;
+
+	/**
+	 * BibtexFile.additions when this entry was added to its owner file, so
+	 * that the iterators of BibtexEntryList can tell whether it has been
+	 * removed and added again since they were created.
+	 */
+	int addition;
+
+	/**
+	 * Where this entry was parsed from, or null.
+	 */
+	private BibtexSource.Span sourceSpan;
+
+	/**
+	 * @return the bytes this entry was parsed from, if the parser kept them -
+	 *         see BibtexParser.setKeepSourceSpans(). The span is marked as
+	 *         modified as soon as the entry changes, but not if a value of the
+	 *         entry changes internally (e.g. BibtexString.setContent()).
+	 */
+	public BibtexSource.Span getSourceSpan() {
+		return sourceSpan;
+	}
+
+	public void setSourceSpan(BibtexSource.Span sourceSpan) {
+		this.sourceSpan = sourceSpan;
+	}
+
+	/**
+	 * Called by the subclasses whenever they change.
+	 */
+	final void markModified() {
+		if (sourceSpan != null)
+			sourceSpan = sourceSpan.modified();
+	}
+
 }
@@ -0,0 +1,24 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+/**
+ * A BibtexString whose content lives in the BibtexStringArena of its owner
+ * file, until setContent() is called.
+ */
+final class BibtexArenaString extends BibtexString {
+
+    private final long position;
+
+    BibtexArenaString(BibtexFile file, long position) {
+        super(file, null);
+        this.position = position;
+    }
+
+    public String getContent() {
+        final String content = super.getContent();
+        return content != null ? content : getOwnerFile().getStringArena().get(position);
+    }
+}
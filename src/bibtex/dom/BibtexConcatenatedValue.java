@@ -12,7 +12,8 @@ import java.io.PrintWriter;
 
 /**
  * 
- * Two abstract values concatenated by the hash-operator (#).
+ * Abstract values concatenated by the hash-operator (#). A chain such as
+ * a # b # c is a single node with three values.
  * 
  * Examples:
  * <ul>
@@ -25,26 +26,59 @@ import java.io.PrintWriter;
  */
 public final class BibtexConcatenatedValue extends BibtexAbstractValue {
 
-	BibtexConcatenatedValue(BibtexFile file,BibtexAbstractValue left, BibtexAbstractValue right){
+	BibtexConcatenatedValue(BibtexFile file, BibtexAbstractValue[] values){
 		super(file);
-		this.left=left;
-		this.right=right;
+		this.values=values;
 	}
 
-	private BibtexAbstractValue left, right;
+	/**
+	 * at least two.
+	 */
+	private BibtexAbstractValue[] values;
+
+	/**
+	 * @return the number of concatenated values, at least two.
+	 */
+	public int getValueCount() {
+		return values.length;
+	}
+
+	/**
+	 * @return the value at index.
+	 */
+	public BibtexAbstractValue getValue(int index) {
+		return values[index];
+	}
 
 	/**
-	 * @return BibtexValue
+	 * Sets the value at index.
+	 */
+	public void setValue(int index, BibtexAbstractValue value) {
+	    
+	    assert value!=null: "value parameter may not be null.";
+	    assert !(value instanceof BibtexMultipleValues): "value parameter may not be an instance of BibtexMultipleValues.";
+	    
+		this.values[index] = value;
+	}
+
+	/**
+	 * @return the first value.
 	 */
 	public BibtexAbstractValue getLeft() {
-		return left;
+		return values[0];
 	}
 
 	/**
-	 * @return BibtexValue
+	 * @return the second value, or the concatenation of all values after the
+	 *         first one if there are more than two (this creates a new node,
+	 *         use getValue() instead).
 	 */
 	public BibtexAbstractValue getRight() {
-		return right;
+		if (values.length == 2)
+			return values[1];
+		BibtexAbstractValue[] rest = new BibtexAbstractValue[values.length - 1];
+		System.arraycopy(values, 1, rest, 0, rest.length);
+		return new BibtexConcatenatedValue(getOwnerFile(), rest);
 	}
 
 	/**
@@ -55,18 +89,22 @@ public final class BibtexConcatenatedValue extends BibtexAbstractValue {
 	    
 	    assert !(left instanceof BibtexMultipleValues): "left parameter may not be an instance of BibtexMultipleValues."; 
 	    
-		this.left = left;
+		this.values[0] = left;
 	}
 
 	/**
-	 * Sets the right.
+	 * Replaces all values after the first one.
 	 * @param right The right to set
 	 */
 	public void setRight(BibtexAbstractValue right) {
 	    
 	    assert !(right instanceof BibtexMultipleValues): "right parameter may not be an instance of BibtexMultipleValues.";
 	    
-		this.right = right;
+		this.values = new BibtexAbstractValue[] { this.values[0], right };
+	}
+
+	public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+		visitor.visit(this);
 	}
 
 	/* (non-Javadoc)
@@ -76,9 +114,11 @@ public final class BibtexConcatenatedValue extends BibtexAbstractValue {
 	    
 	    assert writer!=null: "writer paramter may not be null.";
 	    
-		this.left.printBibtex(writer);
-		writer.print('#');
-		this.right.printBibtex(writer);
+		this.values[0].printBibtex(writer);
+		for (int i = 1; i < this.values.length; i++) {
+			writer.print('#');
+			this.values[i].printBibtex(writer);
+		}
 	}
 
 }
@@ -7,11 +7,15 @@
 package bibtex.dom;
 
 import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * An entry is something that can be referenced by a latex file using the \cite
@@ -40,15 +44,111 @@ public final class BibtexEntry extends BibtexAbstractEntry {
     BibtexEntry(BibtexFile file, String entryType, String entryKey) {
         super(file);
         this.entryKey = entryKey;
-        // we intern the entry type for space optimization.
-        this.entryType = entryType.toLowerCase().intern();
+        // the factory has canonicalized the entry type already.
+        this.entryType = entryType;
     }
 
     private String entryType;
 
     private String entryKey;
 
-    private LinkedHashMap<String,Object> fields = new LinkedHashMap<String,Object>();
+    private static final String[] NO_FIELD_NAMES = new String[0];
+
+    private static final BibtexAbstractValue[] NO_FIELD_VALUES = new BibtexAbstractValue[0];
+
+    /**
+     * The fields in insertion order: fieldValues[i] is the value of the field
+     * named fieldNames[i]. Entries have only a handful of fields, so a linear
+     * scan over the (canonical) names is as fast as hashing, and two arrays
+     * take a fraction of the space of a LinkedHashMap with its node objects.
+     */
+    private String[] fieldNames = NO_FIELD_NAMES;
+
+    private BibtexAbstractValue[] fieldValues = NO_FIELD_VALUES;
+
+    private int fieldCount;
+
+    /*
+     * for BibtexWriter, which iterates over the fields without a FieldMap.
+     */
+
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    String getFieldName(int index) {
+        return fieldNames[index];
+    }
+
+    BibtexAbstractValue getFieldValue(int index) {
+        return fieldValues[index];
+    }
+
+    /**
+     * @return the index of the field named name, or -1.
+     */
+    private int indexOfField(Object name) {
+        final String[] names = this.fieldNames;
+        for (int i = 0; i < fieldCount; i++) {
+            if (names[i] == name)
+                return i;
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            if (names[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A read only, but live view of the fields.
+     */
+    private final class FieldMap extends AbstractMap<String,Object> {
+
+        public int size() {
+            return fieldCount;
+        }
+
+        public boolean containsKey(Object key) {
+            return indexOfField(key) >= 0;
+        }
+
+        public Object get(Object key) {
+            final int index = indexOfField(key);
+            return index < 0 ? null : fieldValues[index];
+        }
+
+        public Set<Map.Entry<String,Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String,Object>>() {
+
+                public int size() {
+                    return fieldCount;
+                }
+
+                public Iterator<Map.Entry<String,Object>> iterator() {
+                    return new Iterator<Map.Entry<String,Object>>() {
+                        private int next = 0;
+
+                        public boolean hasNext() {
+                            return next < fieldCount;
+                        }
+
+                        public Map.Entry<String,Object> next() {
+                            if (next >= fieldCount)
+                                throw new NoSuchElementException();
+                            final int index = next++;
+                            return new AbstractMap.SimpleImmutableEntry<String,Object>(fieldNames[index],
+                                    fieldValues[index]);
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
 
     /**
      * @return String
@@ -57,10 +157,93 @@ public final class BibtexEntry extends BibtexAbstractEntry {
         return entryKey;
     }
 
+    /**
+     * @return the value of the field, or the value that this entry inherits
+     *         for it (see setInheritedFrom()), or null.
+     */
     public BibtexAbstractValue getFieldValue(String name) {
         assert name != null : "name parameter has to be non null.";
 
-        return (BibtexAbstractValue) fields.get(name);
+        final int index = indexOfField(name);
+        if (index >= 0)
+            return fieldValues[index];
+        return inheritedFrom == null ? null : inheritedFrom.getFieldValue(name);
+    }
+
+    /**
+     * @return the value of the field of this entry, ignoring inherited
+     *         fields, or null.
+     */
+    public BibtexAbstractValue getOwnFieldValue(String name) {
+        assert name != null : "name parameter has to be non null.";
+
+        final int index = indexOfField(name);
+        return index < 0 ? null : fieldValues[index];
+    }
+
+    /**
+     * The entry whose fields this entry inherits, or null.
+     */
+    private BibtexEntry inheritedFrom;
+
+    public BibtexEntry getInheritedFrom() {
+        return inheritedFrom;
+    }
+
+    /**
+     * Makes this entry inherit the fields that it doesn't have from parent,
+     * the way bibtex treats crossref - see CrossReferenceExpander. Nothing is
+     * copied: getFieldValue() looks the field up in parent (and in the
+     * entries that parent inherits from), so a change of parent shows through
+     * right away. printBibtex() and BibtexWriter write the inherited fields
+     * after the fields of this entry.
+     * 
+     * getFields(), getOwnFieldValue() and the BibtexFileListener objects only
+     * see the fields of this entry - an index that included the inherited
+     * fields would need an update for every entry that inherits from an
+     * entry that changes.
+     * 
+     * @param parent
+     *            the entry to inherit from, or null to stop inheriting.
+     */
+    public void setInheritedFrom(BibtexEntry parent) {
+        for (BibtexEntry ancestor = parent; ancestor != null; ancestor = ancestor.inheritedFrom)
+            assert ancestor != this : "parent parameter may not inherit from this entry.";
+
+        markModified();
+        this.inheritedFrom = parent;
+    }
+
+    /**
+     * Copies the inherited fields into this entry, and stops inheriting.
+     */
+    public void materializeInheritedFields() {
+        if (inheritedFrom == null)
+            return;
+        final ArrayList<String> names = new ArrayList<String>();
+        final ArrayList<BibtexAbstractValue> values = new ArrayList<BibtexAbstractValue>();
+        getInheritedFields(names, values);
+        this.inheritedFrom = null;
+        for (int i = 0; i < names.size(); i++)
+            setField(names.get(i), values.get(i));
+    }
+
+    /**
+     * Adds the names and values of the inherited fields, in the order of the
+     * fields of the nearest parent, then those of its parent and so on.
+     */
+    void getInheritedFields(List<String> names, List<BibtexAbstractValue> values) {
+        for (BibtexEntry parent = inheritedFrom; parent != null; parent = parent.inheritedFrom) {
+            fields: for (int i = 0; i < parent.fieldCount; i++) {
+                final String name = parent.fieldNames[i];
+                for (BibtexEntry heir = this; heir != parent; heir = heir.inheritedFrom) {
+                    if (heir.indexOfField(name) >= 0)
+                        continue fields;
+                }
+                names.add(name);
+                values.add(parent.fieldValues[i]);
+            }
+        }
     }
     
     /**
@@ -73,7 +256,7 @@ public final class BibtexEntry extends BibtexAbstractEntry {
         
         assert fieldName!=null: "fieldName parameter may not be null.";
         
-        Object value = this.fields.get(fieldName);
+        Object value = this.getFieldValue(fieldName);
         if(value==null) return Collections.EMPTY_LIST;
         if(value instanceof BibtexMultipleValues){
             return ((BibtexMultipleValues)value).getValues();
@@ -94,15 +277,24 @@ public final class BibtexEntry extends BibtexAbstractEntry {
         assert value!=null: "value may not be null.";
         assert !(value instanceof BibtexMultipleValues): "value may not be an instance of BibtexMultipleValues.";
         
+        final int index = indexOfField(fieldName);
         BibtexAbstractValue currentValue = this.getFieldValue(fieldName);
         if (currentValue == null)
             this.setField(fieldName, value);
-        else if (currentValue instanceof BibtexMultipleValues) {
+        else if (index >= 0 && currentValue instanceof BibtexMultipleValues) {
             BibtexMultipleValues multipleValues = (BibtexMultipleValues) currentValue;
+            final String name = fieldNames[index];
+            getOwnerFile().entryChanging(this, name);
             multipleValues.addValue(value);
+            getOwnerFile().entryChanged(this, name);
         } else {
             BibtexMultipleValues multipleValues = this.getOwnerFile().makeBibtexMultipleValues();
-            multipleValues.addValue(currentValue);
+            if (currentValue instanceof BibtexMultipleValues) {
+                // inherited - the parent keeps its values.
+                for (Iterator<?> it = ((BibtexMultipleValues) currentValue).getValues().iterator(); it.hasNext();)
+                    multipleValues.addValue((BibtexAbstractValue) it.next());
+            } else
+                multipleValues.addValue(currentValue);
             multipleValues.addValue(value);
             this.setField(fieldName, multipleValues);
         }
@@ -124,15 +316,35 @@ public final class BibtexEntry extends BibtexAbstractEntry {
      * @return HashMap
      */
     public Map<String,Object> getFields() {
-        return Collections.unmodifiableMap(fields);
+        return new FieldMap();
     }
 
     public void setField(String fieldName, BibtexAbstractValue fieldValue) {
         assert fieldName != null : "fieldName parameter has to be non null.";
         assert fieldValue != null : "fieldValue parameter has to be non null.";
 
-        // we intern fieldName for space optimization.
-        fields.put(fieldName.toLowerCase().intern(), fieldValue);
+        // we canonicalize fieldName for space optimization.
+        final String name = getOwnerFile().getSymbolTable().name(fieldName);
+        getOwnerFile().entryChanging(this, name);
+        final int index = indexOfField(name);
+        if (index >= 0) {
+            fieldValues[index] = fieldValue;
+            getOwnerFile().entryChanged(this, name);
+            return;
+        }
+        if (fieldCount == fieldNames.length) {
+            final int capacity = fieldCount == 0 ? 4 : fieldCount * 2;
+            final String[] names = new String[capacity];
+            final BibtexAbstractValue[] values = new BibtexAbstractValue[capacity];
+            System.arraycopy(fieldNames, 0, names, 0, fieldCount);
+            System.arraycopy(fieldValues, 0, values, 0, fieldCount);
+            fieldNames = names;
+            fieldValues = values;
+        }
+        fieldNames[fieldCount] = name;
+        fieldValues[fieldCount] = fieldValue;
+        fieldCount++;
+        getOwnerFile().entryChanged(this, name);
     }
 
     /**
@@ -144,7 +356,11 @@ public final class BibtexEntry extends BibtexAbstractEntry {
     public void setEntryKey(String entryKey) {
         assert entryKey != null : "BibtexEntry.setEntryKey(String entryKey): encountered entryKey==null.";
         //UPDATE JOOS: please do not go to lowercase... I want to keep my old keys plz
+        final String oldEntryKey = this.entryKey;
+        getOwnerFile().entryChanging(this, null);
         this.entryKey = entryKey;//entryKey.toLowerCase();
+        getOwnerFile().entryKeyChanged(this, oldEntryKey);
+        getOwnerFile().entryChanged(this, null);
     }
 
     /**
@@ -155,7 +371,13 @@ public final class BibtexEntry extends BibtexAbstractEntry {
      */
     public void setEntryType(String entryType) {
         assert entryType != null : "BibtexEntry.setEntryType(String entryType): encountered entryType==null";
-        this.entryType = entryType.toLowerCase().intern();
+        getOwnerFile().entryChanging(this, null);
+        this.entryType = getOwnerFile().getSymbolTable().name(entryType);
+        getOwnerFile().entryChanged(this, null);
+    }
+
+    public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+        visitor.visit(this);
     }
 
     /*
@@ -172,13 +394,18 @@ public final class BibtexEntry extends BibtexAbstractEntry {
         writer.print('{');
         writer.print(this.entryKey);
         writer.println(',');
-        String keys[] = new String[fields.keySet().size()];
-        fields.keySet().toArray(keys);
+        final ArrayList<String> keys = new ArrayList<String>(fieldCount);
+        final ArrayList<BibtexAbstractValue> fieldValues = new ArrayList<BibtexAbstractValue>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            keys.add(this.fieldNames[i]);
+            fieldValues.add(this.fieldValues[i]);
+        }
+        getInheritedFields(keys, fieldValues);
         //FIX JOOS: we do NOT want alphabetically sorted keys, we want insertion order, such that we keep as much the same key order as the original.
         //Arrays.sort(keys);
-        for (int i = 0; i < keys.length; i++) {
-            String key = keys[i];
-            BibtexNode value = (BibtexNode) this.fields.get(key);
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            BibtexNode value = fieldValues.get(i);
             if (value instanceof BibtexMultipleValues) {
                 BibtexMultipleValues values = (BibtexMultipleValues) value;
                 for (Iterator valuesIt = values.getValues().iterator(); valuesIt.hasNext();) {
@@ -207,7 +434,17 @@ public final class BibtexEntry extends BibtexAbstractEntry {
 
         assert fieldName != null : "fieldName parameter has to be !=null.";
 
-        this.fields.remove(fieldName);
+        final int index = indexOfField(fieldName);
+        if (index < 0)
+            return;
+        final String name = fieldNames[index];
+        getOwnerFile().entryChanging(this, name);
+        fieldCount--;
+        System.arraycopy(fieldNames, index + 1, fieldNames, index, fieldCount - index);
+        System.arraycopy(fieldValues, index + 1, fieldValues, index, fieldCount - index);
+        fieldNames[fieldCount] = null;
+        fieldValues[fieldCount] = null;
+        getOwnerFile().entryChanged(this, name);
     }
 
 }
\ No newline at end of file
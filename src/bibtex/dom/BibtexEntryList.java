@@ -0,0 +1,291 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.util.AbstractList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The entries of a BibtexFile, in order - or one of its partitions, which hold
+ * the entries of one kind. Unlike an ArrayList, removing an entry takes
+ * constant time: its slot is just cleared, and the slots are compacted once at
+ * least half of them are empty. To find the slot of an entry, entries remember
+ * their position in the file that created them and in its partition (entries
+ * of other files are looked up in a map).
+ *
+ * Growing and compacting always copy the slots into a new array, so an
+ * iterator can keep walking its array while the file is modified. It returns
+ * the entries that were there when it was created and that haven't been
+ * removed in the meantime - an entry that has been removed and added again is
+ * only returned by newer iterators, see BibtexFile.additions.
+ *
+ * As a List, this is an unmodifiable view - BibtexFile does the modifications.
+ */
+final class BibtexEntryList<E extends BibtexAbstractEntry> extends AbstractList<E> {
+
+    private final BibtexFile file;
+
+    private final boolean partition;
+
+    /**
+     * slots[0..filled) holds the entries and null for removed ones.
+     */
+    private BibtexAbstractEntry[] slots = new BibtexAbstractEntry[16];
+
+    private int filled;
+
+    private int size;
+
+    /**
+     * The slot of an entry of another file, whose position fields belong to
+     * that file, and the BibtexFile.additions of this file when it was added.
+     */
+    private static final class Foreign {
+        int slot;
+
+        int addition;
+    }
+
+    /**
+     * null as long as there are only entries of this file.
+     */
+    private IdentityHashMap<BibtexAbstractEntry, Foreign> foreign;
+
+    /**
+     * @param partition
+     *            whether this list keeps its slots in
+     *            BibtexAbstractEntry.partitionPosition rather than position.
+     */
+    BibtexEntryList(BibtexFile file, boolean partition) {
+        this.file = file;
+        this.partition = partition;
+    }
+
+    void addEntry(E entry) {
+        if (filled == slots.length) {
+            if (2 * size <= filled)
+                compact(slots.length);
+            else
+                resize(2 * slots.length);
+        }
+        add(entry, filled++);
+        size++;
+    }
+
+    boolean removeEntry(BibtexAbstractEntry entry) {
+        final int slot = slotOf(entry);
+        if (slot < 0)
+            return false;
+        slots[slot] = null;
+        forget(entry);
+        size--;
+        if (filled > 32 && 2 * size < filled)
+            compact(slots.length);
+        return true;
+    }
+
+    /**
+     * Replaces the entries from fromIndex (inclusive) to toIndex (exclusive)
+     * with newEntries.
+     */
+    void replaceEntries(int fromIndex, int toIndex, List<? extends E> newEntries) {
+        compact(slots.length);
+        final BibtexAbstractEntry[] oldSlots = slots;
+        final int oldFilled = filled;
+        final int newSize = oldFilled - (toIndex - fromIndex) + newEntries.size();
+        slots = new BibtexAbstractEntry[Math.max(16, newSize + newSize / 2)];
+        System.arraycopy(oldSlots, 0, slots, 0, fromIndex);
+        for (int i = fromIndex; i < toIndex; i++)
+            forget(oldSlots[i]);
+        filled = fromIndex;
+        for (E entry : newEntries)
+            add(entry, filled++);
+        for (int i = toIndex; i < oldFilled; i++)
+            place(oldSlots[i], filled++);
+        size = filled;
+    }
+
+    /**
+     * Removes the entries that filter accepts (or, if retain is true, the ones
+     * it doesn't accept) in a single pass.
+     *
+     * @return the number of removed entries.
+     */
+    int removeEntries(BibtexFile.EntryFilter filter, boolean retain) {
+        final BibtexAbstractEntry[] oldSlots = slots;
+        final int oldFilled = filled;
+        final int oldSize = size;
+        slots = new BibtexAbstractEntry[oldSlots.length];
+        filled = 0;
+        for (int i = 0; i < oldFilled; i++) {
+            final BibtexAbstractEntry entry = oldSlots[i];
+            if (entry == null)
+                continue;
+            if (filter.accept(entry) == retain)
+                place(entry, filled++);
+            else
+                forget(entry);
+        }
+        size = filled;
+        return oldSize - size;
+    }
+
+    boolean containsEntry(BibtexAbstractEntry entry) {
+        return slotOf(entry) >= 0;
+    }
+
+    /**
+     * Puts an entry that is new to this list into slot.
+     */
+    private void add(BibtexAbstractEntry entry, int slot) {
+        if (entry.getOwnerFile() == file) {
+            entry.addition = file.additions;
+        } else {
+            if (foreign == null)
+                foreign = new IdentityHashMap<BibtexAbstractEntry, Foreign>();
+            final Foreign place = new Foreign();
+            place.addition = file.additions;
+            foreign.put(entry, place);
+        }
+        place(entry, slot);
+    }
+
+    /**
+     * Puts an entry of this list into slot.
+     */
+    private void place(BibtexAbstractEntry entry, int slot) {
+        slots[slot] = entry;
+        if (entry.getOwnerFile() == file) {
+            if (partition)
+                entry.partitionPosition = slot;
+            else
+                entry.position = slot;
+        } else {
+            foreign.get(entry).slot = slot;
+        }
+    }
+
+    /**
+     * Called for the entries that are removed from this list.
+     */
+    private void forget(BibtexAbstractEntry entry) {
+        if (entry.getOwnerFile() != file)
+            foreign.remove(entry);
+    }
+
+    /**
+     * @return the slot that holds entry, or -1.
+     */
+    private int slotOf(BibtexAbstractEntry entry) {
+        if (entry.getOwnerFile() == file) {
+            final int slot = partition ? entry.partitionPosition : entry.position;
+            return slot >= 0 && slot < filled && slots[slot] == entry ? slot : -1;
+        }
+        final Foreign place = foreign == null ? null : foreign.get(entry);
+        return place == null ? -1 : place.slot;
+    }
+
+    /**
+     * @return whether entry is in this list and hasn't been added again since
+     *         BibtexFile.additions was the given value.
+     */
+    private boolean containsEntrySince(BibtexAbstractEntry entry, int additions) {
+        if (entry.getOwnerFile() == file)
+            return slotOf(entry) >= 0 && entry.addition - additions <= 0;
+        final Foreign place = foreign == null ? null : foreign.get(entry);
+        return place != null && place.addition - additions <= 0;
+    }
+
+    private void compact(int capacity) {
+        if (size == filled)
+            return;
+        final BibtexAbstractEntry[] oldSlots = slots;
+        final int oldFilled = filled;
+        slots = new BibtexAbstractEntry[capacity];
+        filled = 0;
+        for (int i = 0; i < oldFilled; i++) {
+            if (oldSlots[i] != null)
+                place(oldSlots[i], filled++);
+        }
+    }
+
+    private void resize(int capacity) {
+        final BibtexAbstractEntry[] newSlots = new BibtexAbstractEntry[capacity];
+        System.arraycopy(slots, 0, newSlots, 0, filled);
+        slots = newSlots;
+    }
+
+    /**
+     * This compacts the slots first, if entries have been removed - so
+     * alternating removeEntry() and get() is slow.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        compact(slots.length);
+        return (E) slots[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Takes constant time for entries that were created by the file.
+     */
+    public int indexOf(Object object) {
+        if (!(object instanceof BibtexAbstractEntry))
+            return -1;
+        compact(slots.length);
+        return slotOf((BibtexAbstractEntry) object);
+    }
+
+    public boolean contains(Object object) {
+        return object instanceof BibtexAbstractEntry && containsEntry((BibtexAbstractEntry) object);
+    }
+
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+
+            private final BibtexAbstractEntry[] array = slots;
+
+            private final int limit = filled;
+
+            private final int additions = file.additions;
+
+            private int cursor;
+
+            private BibtexAbstractEntry next;
+
+            public boolean hasNext() {
+                while (next == null && cursor < limit) {
+                    final BibtexAbstractEntry entry = array[cursor++];
+                    // removals clear the current slots only, so after a
+                    // compaction we have to ask.
+                    if (entry != null && (array == slots || containsEntrySince(entry, additions)))
+                        next = entry;
+                }
+                return next != null;
+            }
+
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final E result = (E) next;
+                next = null;
+                return result;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
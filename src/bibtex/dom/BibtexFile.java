@@ -8,9 +8,12 @@ package bibtex.dom;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import bibtex.Assertions;
 
@@ -23,35 +26,454 @@ import bibtex.Assertions;
  */
 public final class BibtexFile extends BibtexNode {
 
-    private final ArrayList<BibtexAbstractEntry> entries = new ArrayList<BibtexAbstractEntry>();
+    /**
+     * Selects entries for removeEntries() and retainEntries().
+     */
+    public interface EntryFilter {
+        boolean accept(BibtexAbstractEntry entry);
+    }
+
+    private final BibtexEntryList<BibtexAbstractEntry> entries = new BibtexEntryList<BibtexAbstractEntry>(this, false);
+
+    /**
+     * the entries again, partitioned by kind - in the order of partitionIndex().
+     */
+    private final BibtexEntryList<BibtexEntry> bibtexEntries = new BibtexEntryList<BibtexEntry>(this, true);
+
+    private final BibtexEntryList<BibtexMacroDefinition> macroDefinitions = new BibtexEntryList<BibtexMacroDefinition>(
+            this, true);
+
+    private final BibtexEntryList<BibtexPreamble> preambles = new BibtexEntryList<BibtexPreamble>(this, true);
+
+    private final BibtexEntryList<BibtexToplevelComment> toplevelComments = new BibtexEntryList<BibtexToplevelComment>(
+            this, true);
+
+    /**
+     * counts the calls of addEntry() and replaceEntries(), see
+     * BibtexEntryList. This may wrap around.
+     */
+    int additions;
+
+    @SuppressWarnings("rawtypes")
+    private final BibtexEntryList[] partitions = { bibtexEntries, macroDefinitions, preambles, toplevelComments };
+
+    /**
+     * lower case entry key to BibtexEntry, or to an ArrayList of the entries
+     * with that key. null until the first getEntry() call.
+     */
+    private HashMap<String, Object> keyIndex;
+
+    private BibtexFileListener[] listeners = new BibtexFileListener[0];
+
+    /**
+     * Different entries may be changed on different threads (see
+     * AbstractExpander.setParallelism()), so the change notifications are
+     * delivered one at a time.
+     */
+    private final Object listenerLock = new Object();
+
+    private final BibtexSymbolTable symbolTable;
+
+    private final BibtexStringArena stringArena;
 
     public BibtexFile() {
+        this(new BibtexSymbolTable());
+    }
+
+    /**
+     * @param symbolTable
+     *            the symbol table for the nodes created by this file - pass
+     *            the symbol table of another file to share it.
+     */
+    public BibtexFile(BibtexSymbolTable symbolTable) {
+        this(symbolTable, null);
+    }
+
+    /**
+     * @param symbolTable
+     *            the symbol table for the nodes created by this file.
+     * @param stringArena
+     *            if this is not null, the strings created by this file that
+     *            the symbol table doesn't canonicalize keep their content in
+     *            the arena - see BibtexStringArena.
+     */
+    public BibtexFile(BibtexSymbolTable symbolTable, BibtexStringArena stringArena) {
         super(null);
+
+        assert symbolTable != null : "symbolTable parameter may not be null.";
+
+        this.symbolTable = symbolTable;
+        this.stringArena = stringArena;
+    }
+
+    /**
+     * @return the symbol table that canonicalizes the names and short values
+     *         of the nodes created by this file.
+     */
+    public BibtexSymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /**
+     * @return the arena for the content of long strings, or null.
+     */
+    public BibtexStringArena getStringArena() {
+        return stringArena;
     }
 
     public void addEntry(BibtexAbstractEntry entry) {
         assert entry != null : "entry parameter may not be null.";
-        assert !Assertions.ENABLE_EXPENSIVE_ASSERTIONS || !this.entries.contains(entry) :
+        assert !Assertions.ENABLE_EXPENSIVE_ASSERTIONS || !this.entries.containsEntry(entry) :
             "entry parameter is already contained within this BibtexFile object.";
 
-        this.entries.add(entry);
+        this.additions++;
+        this.entries.addEntry(entry);
+        added(entry);
     }
 
+    /**
+     * Takes constant time for entries that were created by this file. It's ok
+     * to call this while iterating over getEntries().
+     *
+     * @param entry
+     */
     public void removeEntry(BibtexAbstractEntry entry) {
         assert entry != null;
 
-        boolean found = this.entries.remove(entry);
+        boolean found = this.entries.removeEntry(entry);
 
         assert found : "entry parameter was not found.";
+
+        if (found)
+            removed(entry);
     }
 
     /**
-     * returns an unmodifiable view of the entries.
+     * Removes all entries that filter accepts, in a single pass that keeps the
+     * order of the remaining entries.
+     *
+     * @param filter
+     * @return the number of removed entries.
+     */
+    public int removeEntries(EntryFilter filter) {
+        assert filter != null : "filter parameter may not be null.";
+
+        return removeEntries(filter, false);
+    }
+
+    /**
+     * Removes all entries that filter doesn't accept, in a single pass that
+     * keeps the order of the remaining entries.
+     *
+     * @param filter
+     * @return the number of removed entries.
+     */
+    public int retainEntries(EntryFilter filter) {
+        assert filter != null : "filter parameter may not be null.";
+
+        return removeEntries(filter, true);
+    }
+
+    private int removeEntries(final EntryFilter filter, final boolean retain) {
+        final ArrayList<BibtexAbstractEntry> removedEntries = new ArrayList<BibtexAbstractEntry>();
+        this.entries.removeEntries(new EntryFilter() {
+            public boolean accept(BibtexAbstractEntry entry) {
+                final boolean accepted = filter.accept(entry);
+                if (accepted != retain)
+                    removedEntries.add(entry);
+                return accepted;
+            }
+        }, retain);
+        for (BibtexAbstractEntry entry : removedEntries)
+            removed(entry);
+        return removedEntries.size();
+    }
+
+    /**
+     * Replaces the entries from fromIndex (inclusive) to toIndex (exclusive)
+     * with newEntries.
+     *
+     * @param fromIndex
+     * @param toIndex
+     * @param newEntries
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void replaceEntries(int fromIndex, int toIndex, List<? extends BibtexAbstractEntry> newEntries) {
+        assert 0 <= fromIndex && fromIndex <= toIndex && toIndex <= this.entries.size() :
+            "fromIndex and toIndex parameters must describe a range of entries.";
+        assert newEntries != null : "newEntries parameter may not be null.";
+
+        // the partitions are replaced from where their entries before
+        // fromIndex end.
+        final int[] partitionFrom = new int[partitions.length];
+        for (int i = 0; i < fromIndex; i++)
+            partitionFrom[partitionIndex(this.entries.get(i))]++;
+        final int[] partitionTo = partitionFrom.clone();
+        final ArrayList<BibtexEntry> oldBibtexEntries = new ArrayList<BibtexEntry>();
+        for (int i = fromIndex; i < toIndex; i++) {
+            final BibtexAbstractEntry entry = this.entries.get(i);
+            partitionTo[partitionIndex(entry)]++;
+            if (entry instanceof BibtexEntry) {
+                oldBibtexEntries.add((BibtexEntry) entry);
+                if (keyIndex != null)
+                    unindexKey((BibtexEntry) entry, ((BibtexEntry) entry).getEntryKey());
+            }
+        }
+        final ArrayList<BibtexAbstractEntry>[] partitionEntries = new ArrayList[partitions.length];
+        for (int i = 0; i < partitions.length; i++)
+            partitionEntries[i] = new ArrayList<BibtexAbstractEntry>();
+        for (BibtexAbstractEntry entry : newEntries) {
+            partitionEntries[partitionIndex(entry)].add(entry);
+            if (keyIndex != null && entry instanceof BibtexEntry)
+                indexKey((BibtexEntry) entry, ((BibtexEntry) entry).getEntryKey());
+        }
+
+        this.additions++;
+        this.entries.replaceEntries(fromIndex, toIndex, newEntries);
+        for (int i = 0; i < partitions.length; i++) {
+            if (partitionFrom[i] != partitionTo[i] || !partitionEntries[i].isEmpty())
+                partitions[i].replaceEntries(partitionFrom[i], partitionTo[i], partitionEntries[i]);
+        }
+        for (BibtexFileListener listener : listeners) {
+            for (BibtexEntry entry : oldBibtexEntries)
+                listener.entryRemoved(entry);
+            for (Object entry : partitionEntries[0])
+                listener.entryAdded((BibtexEntry) entry);
+        }
+    }
+
+    /**
+     * returns an unmodifiable view of the entries. Its iterators don't fail
+     * if the file is modified - they skip removed entries and don't return
+     * the ones added after they were created.
      * 
      * @return List
      */
     public List<BibtexAbstractEntry> getEntries() {
-        return Collections.unmodifiableList(entries);
+        return entries;
+    }
+
+    /**
+     * Like getEntries(), but only the BibtexEntry objects - without walking
+     * over the macro definitions, preambles and comments.
+     *
+     * @return List
+     */
+    public List<BibtexEntry> getBibtexEntries() {
+        return bibtexEntries;
+    }
+
+    /**
+     * Like getEntries(), but only the BibtexMacroDefinition objects.
+     *
+     * @return List
+     */
+    public List<BibtexMacroDefinition> getMacroDefinitions() {
+        return macroDefinitions;
+    }
+
+    /**
+     * Like getEntries(), but only the BibtexPreamble objects.
+     *
+     * @return List
+     */
+    public List<BibtexPreamble> getPreambles() {
+        return preambles;
+    }
+
+    /**
+     * Like getEntries(), but only the BibtexToplevelComment objects.
+     *
+     * @return List
+     */
+    public List<BibtexToplevelComment> getToplevelComments() {
+        return toplevelComments;
+    }
+
+    /**
+     * Looks up an entry by its key, ignoring case. The index behind this is
+     * built by the first call and kept up to date from then on.
+     *
+     * @param entryKey
+     * @return the entry with the given key, or null. If there are several,
+     *         this is the one that was added last.
+     */
+    public BibtexEntry getEntry(String entryKey) {
+        assert entryKey != null : "entryKey parameter may not be null.";
+
+        if (keyIndex == null) {
+            keyIndex = new HashMap<String, Object>();
+            for (BibtexEntry entry : bibtexEntries)
+                indexKey(entry, entry.getEntryKey());
+        }
+        final Object indexed = keyIndex.get(entryKey.toLowerCase());
+        if (indexed instanceof ArrayList) {
+            final ArrayList<?> duplicates = (ArrayList<?>) indexed;
+            return (BibtexEntry) duplicates.get(duplicates.size() - 1);
+        }
+        return (BibtexEntry) indexed;
+    }
+
+    /**
+     * Called by BibtexEntry.setEntryKey(). Entries of other files that were
+     * added to this file keep their old key in the index.
+     */
+    void entryKeyChanged(BibtexEntry entry, String oldEntryKey) {
+        if (keyIndex != null && this.entries.containsEntry(entry)) {
+            unindexKey(entry, oldEntryKey);
+            indexKey(entry, entry.getEntryKey());
+        }
+    }
+
+    /**
+     * Registers a listener for the changes to the BibtexEntry objects of this
+     * file. Without listeners, changes don't cost anything extra.
+     *
+     * @param listener
+     */
+    public void addListener(BibtexFileListener listener) {
+        assert listener != null : "listener parameter may not be null.";
+
+        final BibtexFileListener[] newListeners = new BibtexFileListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    public void removeListener(BibtexFileListener listener) {
+        assert listener != null : "listener parameter may not be null.";
+
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                final BibtexFileListener[] newListeners = new BibtexFileListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, newListeners.length - i);
+                listeners = newListeners;
+                return;
+            }
+        }
+        assert false : "listener parameter was not found.";
+    }
+
+    /**
+     * @return an unmodifiable list of the listeners.
+     */
+    public List<BibtexFileListener> getListeners() {
+        return Collections.unmodifiableList(Arrays.asList(listeners));
+    }
+
+    /**
+     * Called by BibtexEntry before it changes. This also marks the source span
+     * of entry as modified.
+     *
+     * @param fieldName
+     *            the lower case field name, or null for the entry type or key.
+     */
+    void entryChanging(BibtexEntry entry, String fieldName) {
+        entry.markModified();
+        if (listeners.length != 0 && this.entries.containsEntry(entry)) {
+            synchronized (listenerLock) {
+                for (BibtexFileListener listener : listeners)
+                    listener.entryChanging(entry, fieldName);
+            }
+        }
+    }
+
+    /**
+     * Called by BibtexEntry after it has changed.
+     */
+    void entryChanged(BibtexEntry entry, String fieldName) {
+        if (listeners.length != 0 && this.entries.containsEntry(entry)) {
+            synchronized (listenerLock) {
+                for (BibtexFileListener listener : listeners)
+                    listener.entryChanged(entry, fieldName);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void added(BibtexAbstractEntry entry) {
+        partitions[partitionIndex(entry)].addEntry(entry);
+        if (entry instanceof BibtexEntry) {
+            if (keyIndex != null)
+                indexKey((BibtexEntry) entry, ((BibtexEntry) entry).getEntryKey());
+            for (BibtexFileListener listener : listeners)
+                listener.entryAdded((BibtexEntry) entry);
+        }
+    }
+
+    private void removed(BibtexAbstractEntry entry) {
+        partitions[partitionIndex(entry)].removeEntry(entry);
+        if (entry instanceof BibtexEntry) {
+            if (keyIndex != null)
+                unindexKey((BibtexEntry) entry, ((BibtexEntry) entry).getEntryKey());
+            for (BibtexFileListener listener : listeners)
+                listener.entryRemoved((BibtexEntry) entry);
+        }
+    }
+
+    /**
+     * Entries of other files may have been indexed under an older key, so
+     * this searches the whole index for them.
+     */
+    private void unindexEntry(BibtexEntry entry) {
+        for (Map.Entry<String, Object> indexed : keyIndex.entrySet()) {
+            final Object value = indexed.getValue();
+            if (value == entry || value instanceof ArrayList && ((ArrayList<?>) value).contains(entry)) {
+                unindexKey(entry, indexed.getKey());
+                return;
+            }
+        }
+    }
+
+    private static int partitionIndex(BibtexAbstractEntry entry) {
+        if (entry instanceof BibtexEntry)
+            return 0;
+        if (entry instanceof BibtexMacroDefinition)
+            return 1;
+        if (entry instanceof BibtexPreamble)
+            return 2;
+        assert entry instanceof BibtexToplevelComment : "unexpected entry: " + entry.getClass().getName();
+        return 3;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void indexKey(BibtexEntry entry, String entryKey) {
+        final String lowerCaseKey = entryKey.toLowerCase();
+        final Object indexed = keyIndex.put(lowerCaseKey, entry);
+        if (indexed != null) {
+            // duplicate keys are rare, so we only make a list for them.
+            final ArrayList<BibtexEntry> duplicates;
+            if (indexed instanceof ArrayList) {
+                duplicates = (ArrayList<BibtexEntry>) indexed;
+            } else {
+                duplicates = new ArrayList<BibtexEntry>(2);
+                duplicates.add((BibtexEntry) indexed);
+            }
+            duplicates.add(entry);
+            keyIndex.put(lowerCaseKey, duplicates);
+        }
+    }
+
+    private void unindexKey(BibtexEntry entry, String entryKey) {
+        final String lowerCaseKey = entryKey.toLowerCase();
+        final Object indexed = keyIndex.get(lowerCaseKey);
+        if (indexed == entry) {
+            keyIndex.remove(lowerCaseKey);
+            return;
+        } else if (indexed instanceof ArrayList) {
+            final ArrayList<?> duplicates = (ArrayList<?>) indexed;
+            for (int i = 0; i < duplicates.size(); i++) {
+                if (duplicates.get(i) == entry) {
+                    duplicates.remove(i);
+                    if (duplicates.size() == 1)
+                        keyIndex.put(lowerCaseKey, duplicates.get(0));
+                    return;
+                }
+            }
+        }
+        if (entry.getOwnerFile() != this)
+            unindexEntry(entry);
     }
 
     public BibtexConcatenatedValue makeConcatenatedValue(BibtexAbstractValue left, BibtexAbstractValue right) {
@@ -59,7 +481,19 @@ public final class BibtexFile extends BibtexNode {
         assert left != null : "left parameter may not be null.";
         assert right != null : "right parameter may not be null.";
 
-        return new BibtexConcatenatedValue(this, left, right);
+        return new BibtexConcatenatedValue(this, new BibtexAbstractValue[] { left, right });
+    }
+
+    /**
+     * @param values
+     *            at least two values, which are concatenated in one node.
+     */
+    public BibtexConcatenatedValue makeConcatenatedValue(BibtexAbstractValue[] values) {
+
+        assert values != null && values.length >= 2 : "values parameter must have at least two elements.";
+        assert !Arrays.asList(values).contains(null) : "values parameter may not contain null.";
+
+        return new BibtexConcatenatedValue(this, values.clone());
     }
 
     /**
@@ -73,7 +507,7 @@ public final class BibtexFile extends BibtexNode {
 
         assert entryType != null : "entryType parameter may not be null.";
 
-        return new BibtexEntry(this, entryType, entryKey == null ? "" : entryKey);
+        return new BibtexEntry(this, symbolTable.name(entryType), entryKey == null ? "" : entryKey);
     }
 
     public BibtexPersonList makePersonList() {
@@ -83,7 +517,9 @@ public final class BibtexFile extends BibtexNode {
     public BibtexPerson makePerson(String first, String preLast, String last, String lineage, boolean isOthers) {
         assert isOthers || last != null : "(isOthers||last!=null) has to be true.";
 
-        return new BibtexPerson(this, first, preLast, last, lineage, isOthers);
+        return new BibtexPerson(this, first == null ? null : symbolTable.value(first), preLast == null ? null
+                : symbolTable.value(preLast), last == null ? null : symbolTable.value(last), lineage == null ? null
+                : symbolTable.value(lineage), isOthers);
     }
 
     public BibtexPreamble makePreamble(BibtexAbstractValue content) {
@@ -95,11 +531,19 @@ public final class BibtexFile extends BibtexNode {
     /**
      * @param content
      *            does not include the quotes or curly braces around the string!
+     *            This may also be a StringBuilder, which saves allocating a
+     *            String if the content is in the symbol table already.
      */
-    public BibtexString makeString(String content) {
+    public BibtexString makeString(CharSequence content) {
         assert content != null : "content parameter may not be null.";
 
-        return new BibtexString(this, content);
+        if (stringArena != null) {
+            final String symbol = symbolTable.canonicalValue(content);
+            if (symbol == null)
+                return new BibtexArenaString(this, stringArena.add(content));
+            return new BibtexString(this, symbol);
+        }
+        return new BibtexString(this, symbolTable.value(content));
     }
 
     public BibtexMultipleValues makeBibtexMultipleValues() {
@@ -112,13 +556,18 @@ public final class BibtexFile extends BibtexNode {
         assert value != null : "value parameter may not be null.";
         assert !(value instanceof BibtexMultipleValues) : "value parameter may not be an instance of BibtexMultipleValues";
 
-        return new BibtexMacroDefinition(this, key, value);
+        return new BibtexMacroDefinition(this, symbolTable.name(key), value);
     }
 
-    public BibtexMacroReference makeMacroReference(String key) {
+    /**
+     * @param key
+     *            This may also be a StringBuilder, which saves allocating a
+     *            String if the key is in the symbol table already.
+     */
+    public BibtexMacroReference makeMacroReference(CharSequence key) {
         assert key != null : "key parameter may not be null.";
 
-        return new BibtexMacroReference(this, key);
+        return new BibtexMacroReference(this, symbolTable.name(key));
     }
 
     public BibtexToplevelComment makeToplevelComment(String content) {
@@ -127,6 +576,10 @@ public final class BibtexFile extends BibtexNode {
         return new BibtexToplevelComment(this, content);
     }
 
+    public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+        visitor.visit(this);
+    }
+
     public void printBibtex(PrintWriter writer) {
         assert writer != null : "writer parameter may not be null.";
 
@@ -0,0 +1,46 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+/**
+ * Gets told about the changes to the BibtexEntry objects of a BibtexFile, e.g.
+ * to keep an index up to date - see BibtexFile.addListener().
+ *
+ * Changes to an entry are reported by the file that created it, and only while
+ * the entry is in that file. Changes inside a value (e.g.
+ * BibtexString.setContent()) are not reported; replace the value with
+ * BibtexEntry.setField() instead. The listeners are told about one change at a
+ * time, even if different entries are changed on different threads.
+ */
+public interface BibtexFileListener {
+
+    /**
+     * entry has been added to the file.
+     */
+    void entryAdded(BibtexEntry entry);
+
+    /**
+     * entry has been removed from the file.
+     */
+    void entryRemoved(BibtexEntry entry);
+
+    /**
+     * A field of entry is about to change.
+     *
+     * @param fieldName
+     *            the lower case name of the field, or null if the entry type or
+     *            the entry key is about to change.
+     */
+    void entryChanging(BibtexEntry entry, String fieldName);
+
+    /**
+     * A field of entry has changed - this follows entryChanging().
+     *
+     * @param fieldName
+     *            the lower case name of the field, or null if the entry type or
+     *            the entry key has changed.
+     */
+    void entryChanged(BibtexEntry entry, String fieldName);
+}
@@ -27,7 +27,8 @@ public final class BibtexMacroDefinition extends BibtexAbstractEntry {
 
 	BibtexMacroDefinition(BibtexFile file,String key, BibtexAbstractValue value){
 		super(file);
-		this.key = key.toLowerCase();
+		// the factory has lowercased the key already.
+		this.key = key;
 		this.value = value;
 	}
 
@@ -52,7 +53,8 @@ public final class BibtexMacroDefinition extends BibtexAbstractEntry {
 	 * @param key The key to set
 	 */
 	public void setKey(String key) {
-		this.key = key.toLowerCase();
+		markModified();
+		this.key = getOwnerFile().getSymbolTable().name(key);
 	}
 
 	/**
@@ -63,11 +65,16 @@ public final class BibtexMacroDefinition extends BibtexAbstractEntry {
 	    
 	    assert value!=null: "value parameter has to be !=null.";
 	    
+		markModified();
 		this.value = value;
 	}
 
 
 
+	public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+		visitor.visit(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see bibtex.dom.BibtexNode#printBibtex(java.io.PrintWriter)
 	 */
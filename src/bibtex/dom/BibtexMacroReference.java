@@ -19,7 +19,8 @@ public final class BibtexMacroReference extends BibtexAbstractValue {
 
 	BibtexMacroReference(BibtexFile file,String key){
 		super(file);
-		this.key = key.toLowerCase();
+		// the factory has lowercased the key already.
+		this.key = key;
 	}
 
 	private String key;
@@ -42,6 +43,10 @@ public final class BibtexMacroReference extends BibtexAbstractValue {
 		this.key = key;
 	}
 
+	public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+		visitor.visit(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see bibtex.dom.BibtexNode#printBibtex(java.io.PrintWriter)
 	 */
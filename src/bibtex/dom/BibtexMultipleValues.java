@@ -82,6 +82,10 @@ public final class BibtexMultipleValues extends BibtexAbstractValue {
         assert wasFound : "value parameter was not found inside this BibtexMultipleValues object.";
     }
 
+    public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+        visitor.visit(this);
+    }
+
     /**
      * This method will print all the bibtex values contained in this
      * BibtexMultipleValues instance, separated with empty lines. Note that the
@@ -6,8 +6,8 @@
  */
 package bibtex.dom;
 
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringWriter;
 
 /**
  * An abstract superclass for all bibtex model nodes.
@@ -56,12 +56,27 @@ public abstract class BibtexNode {
 	
 	abstract public void printBibtex(PrintWriter writer);
 
+	/**
+	 * Calls the visit method of visitor for the type of this node. This
+	 * doesn't visit the children - the visitor decides which ones to visit.
+	 * 
+	 * @param visitor
+	 * @throws X
+	 *             whatever the visit method throws.
+	 */
+	abstract public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X;
+
 	public String toString(){
-		StringWriter stringWriter = new StringWriter();
-		PrintWriter out = new PrintWriter(stringWriter);
-		printBibtex(out);
-		out.flush();
-		return stringWriter.toString();
+		StringBuilder result = new StringBuilder();
+		BibtexWriter out = new BibtexWriter(result);
+		try {
+			out.write(this);
+			out.flush();
+		} catch (IOException e) {
+			// a StringBuilder doesn't throw IOExceptions.
+			throw new IllegalStateException(e);
+		}
+		return result.toString();
 	}
 
 }
@@ -46,6 +46,24 @@ public final class BibtexPerson extends BibtexNode {
 
 	private String first, preLast, last, lineage;
 	private boolean isOthers;
+	private boolean immutable;
+
+	/**
+	 * After this, the setters throw an UnsupportedOperationException - see
+	 * BibtexPersonList.makeImmutable().
+	 */
+	public void makeImmutable() {
+		this.immutable = true;
+	}
+
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	private void checkMutable() {
+		if (immutable)
+			throw new UnsupportedOperationException("This person is immutable, it may be shared by several entries.");
+	}
 
 	/**
 	 * @return String
@@ -87,6 +105,7 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param first The first to set
 	 */
 	public void setFirst(String first) {
+		checkMutable();
 		this.first = first;
 	}
 
@@ -95,6 +114,7 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param isAndOthers The isAndOthers to set
 	 */
 	public void setOthers(boolean isAndOthers) {
+		checkMutable();
 		this.isOthers = isAndOthers;
 	}
 
@@ -103,7 +123,7 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param last The last to set
 	 */
 	public void setLast(String last) {
-    
+		checkMutable();
 		this.last = last;
 	}
 
@@ -112,6 +132,7 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param lineage The lineage to set
 	 */
 	public void setLineage(String lineage) {
+		checkMutable();
 		this.lineage = lineage;
 	}
 
@@ -120,9 +141,14 @@ public final class BibtexPerson extends BibtexNode {
 	 * @param preLast The preLast to set; may be null.
 	 */
 	public void setPreLast(String preLast) {
+		checkMutable();
 		this.preLast = preLast;
 	}
 
+	public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+		visitor.visit(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see bibtex.dom.BibtexNode#printBibtex(java.io.PrintWriter)
 	 */
@@ -40,9 +40,32 @@ public final class BibtexPersonList extends BibtexAbstractValue {
 	    
 	    assert bibtexPerson!=null: "bibtexPerson parameter may not be null.";
 	    
+		if (immutable)
+			throw new UnsupportedOperationException("This person list is immutable, it may be shared by several entries.");
 		this.list.add(bibtexPerson);
 	}
 
+	private boolean immutable;
+
+	/**
+	 * Makes this list and its persons immutable, so that several entries can
+	 * share it (see bibtex.expansions.BibtexPersonListCache) - add() and the setters of the
+	 * persons throw an UnsupportedOperationException from now on.
+	 */
+	public void makeImmutable() {
+		for (Iterator<?> it = list.iterator(); it.hasNext();)
+			((BibtexPerson) it.next()).makeImmutable();
+		this.immutable = true;
+	}
+
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+
+	public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+		visitor.visit(this);
+	}
 
 	/* (non-Javadoc)
 	 * @see bibtex.dom.BibtexNode#printBibtex(java.io.PrintWriter)
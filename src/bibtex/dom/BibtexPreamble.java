@@ -24,6 +24,10 @@ public final class BibtexPreamble extends BibtexAbstractEntry {
 	}
 
 
+	public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+		visitor.visit(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see bibtex.dom.BibtexNode#printBibtex(java.io.PrintWriter)
 	 */
@@ -52,6 +56,7 @@ public final class BibtexPreamble extends BibtexAbstractEntry {
 	    assert content!=null : "content parameter may not be null.";
 	    assert !(content instanceof BibtexMultipleValues) : "content parameter may not be an instance of BibtexMultipleValues.";
 	    
+		markModified();
 		this.content = content;
 	}
 
@@ -0,0 +1,459 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * A compact binary serialization of a BibtexFile, for caching the result of
+ * parsing (and expanding) large files that rarely change. All strings go
+ * into a string table, so each distinct field name, entry type, macro name
+ * and so on is stored only once, and nodes refer to them by index.
+ *
+ * A snapshot is written together with a key - usually the content hash of
+ * the source file plus whatever options influenced the result, see
+ * key(Path, String). Reading a snapshot with a different key fails, so an
+ * outdated snapshot is never used:
+ *
+ * <pre>
+ * byte[] key = BibtexSnapshot.key(source, &quot;expandMacros&quot;);
+ * if (!BibtexSnapshot.load(bibtexFile, key, snapshot)) {
+ *     // parse and expand source into bibtexFile ...
+ *     BibtexSnapshot.save(bibtexFile, key, snapshot);
+ * }
+ * </pre>
+ *
+ * Nodes that are shared between several parents are stored once per parent,
+ * so they are not shared after loading. An entry that inherits from another
+ * entry of the file (see BibtexEntry.setInheritedFrom()) still does after
+ * loading; if it inherits from an entry of another file, the inherited fields
+ * are stored as its own fields.
+ */
+public final class BibtexSnapshot {
+
+    private static final int MAGIC = 0x42534e50; // "BSNP"
+
+    private static final int VERSION = 3;
+
+    private static final byte ENTRY = 1, MACRO_DEFINITION = 2, PREAMBLE = 3, TOPLEVEL_COMMENT = 4, STRING = 5,
+            MACRO_REFERENCE = 6, CONCATENATED_VALUE = 7, MULTIPLE_VALUES = 8, PERSON_LIST = 9;
+
+    private static final byte PERSON_IS_OTHERS = 1;
+
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private BibtexSnapshot() {
+    }
+
+    /**
+     * @param source
+     *            the file that the BibtexFile was parsed from.
+     * @param variant
+     *            describes everything else that influenced the BibtexFile,
+     *            e.g. the expanders that were run on it.
+     * @return the SHA-256 hash of the content of source and variant.
+     * @throws IOException
+     */
+    public static byte[] key(Path source, String variant) throws IOException {
+
+        assert source != null : "source parameter may not be null.";
+        assert variant != null : "variant parameter may not be null.";
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("every Java platform has SHA-256", e);
+        }
+        FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            for (long position = 0; position < size; position += WINDOW_SIZE)
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size
+                        - position)));
+        } finally {
+            channel.close();
+        }
+        digest.update(variant.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    /**
+     * Writes the snapshot to a temporary file next to snapshot and renames it,
+     * so there is never a half written snapshot.
+     *
+     * @param bibtexFile
+     * @param key
+     * @param snapshot
+     * @throws IOException
+     */
+    public static void save(BibtexFile bibtexFile, byte[] key, Path snapshot) throws IOException {
+
+        assert snapshot != null : "snapshot parameter may not be null.";
+
+        final Path temporary = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName()
+                .toString(), ".tmp");
+        try {
+            OutputStream out = Files.newOutputStream(temporary);
+            try {
+                write(bibtexFile, key, out);
+            } finally {
+                out.close();
+            }
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Adds the entries of the snapshot to bibtexFile, if the snapshot exists
+     * and was saved with the same key.
+     *
+     * @param bibtexFile
+     * @param key
+     * @param snapshot
+     * @return false if there is no snapshot for key - bibtexFile is not
+     *         changed in that case.
+     * @throws IOException
+     */
+    public static boolean load(BibtexFile bibtexFile, byte[] key, Path snapshot) throws IOException {
+
+        assert snapshot != null : "snapshot parameter may not be null.";
+
+        if (!Files.isRegularFile(snapshot))
+            return false;
+        return read(bibtexFile, key, Files.readAllBytes(snapshot));
+    }
+
+    /**
+     * @param bibtexFile
+     * @param key
+     *            is stored in the snapshot and has to be passed to read.
+     * @param out
+     * @throws IOException
+     */
+    public static void write(BibtexFile bibtexFile, byte[] key, OutputStream out) throws IOException {
+
+        assert bibtexFile != null : "bibtexFile parameter may not be null.";
+        assert key != null : "key parameter may not be null.";
+        assert out != null : "out parameter may not be null.";
+
+        final Writer writer = new Writer();
+        final ArrayList<BibtexAbstractEntry> entries = new ArrayList<BibtexAbstractEntry>(bibtexFile.getEntries());
+        for (int i = 0; i < entries.size(); i++)
+            writer.entryIndices.put(entries.get(i), Integer.valueOf(i));
+        writer.writeNumber(entries.size());
+        for (BibtexAbstractEntry entry : entries)
+            writer.writeNode(entry);
+
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(key.length);
+        data.write(key);
+        final Writer stringTable = new Writer();
+        stringTable.writeNumber(writer.strings.size());
+        for (String string : writer.strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            stringTable.writeNumber(bytes.length);
+            stringTable.write(bytes, bytes.length);
+        }
+        data.write(stringTable.buffer, 0, stringTable.length);
+        data.write(writer.buffer, 0, writer.length);
+        data.flush();
+    }
+
+    /**
+     * Adds the entries of the snapshot in bytes to bibtexFile.
+     *
+     * @param bibtexFile
+     * @param key
+     * @param bytes
+     * @return false if the snapshot was written with a different key or by
+     *         an incompatible version - bibtexFile is not changed in that case.
+     * @throws IOException
+     *             if the snapshot is corrupt.
+     */
+    public static boolean read(BibtexFile bibtexFile, byte[] key, byte[] bytes) throws IOException {
+
+        assert bibtexFile != null : "bibtexFile parameter may not be null.";
+        assert key != null : "key parameter may not be null.";
+        assert bytes != null : "bytes parameter may not be null.";
+
+        final Reader reader = new Reader(bibtexFile, bytes);
+        try {
+            if (reader.readInt() != MAGIC || reader.readInt() != VERSION)
+                return false;
+            final int keyLength = reader.readInt();
+            if (keyLength != key.length
+                    || !Arrays.equals(key, Arrays.copyOfRange(bytes, reader.position, reader.position + keyLength)))
+                return false;
+            reader.position += keyLength;
+            reader.strings = new String[reader.readNumber()];
+            for (int i = 0; i < reader.strings.length; i++) {
+                final int length = reader.readNumber();
+                reader.strings[i] = new String(bytes, reader.position, length, StandardCharsets.UTF_8);
+                reader.position += length;
+            }
+            final BibtexAbstractEntry[] entries = new BibtexAbstractEntry[reader.readNumber()];
+            for (int i = 0; i < entries.length; i++)
+                entries[i] = (BibtexAbstractEntry) reader.readNode();
+            for (int i = 0; i < reader.heirs.size(); i++)
+                reader.heirs.get(i).setInheritedFrom((BibtexEntry) entries[reader.parents.get(i).intValue()]);
+            for (int i = 0; i < entries.length; i++)
+                bibtexFile.addEntry(entries[i]);
+            return true;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt snapshot.", e);
+        } catch (ClassCastException e) {
+            throw new IOException("corrupt snapshot.", e);
+        }
+    }
+
+    /**
+     * Collects the nodes in a byte array (we can only write the string table
+     * once we've seen all nodes) and the strings in the table.
+     */
+    private static final class Writer {
+        byte[] buffer = new byte[64 * 1024];
+
+        int length;
+
+        final HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+
+        final ArrayList<String> strings = new ArrayList<String>();
+
+        /**
+         * the position of each entry of the file, for the links of entries
+         * that inherit from another entry.
+         */
+        final IdentityHashMap<BibtexAbstractEntry, Integer> entryIndices = new IdentityHashMap<BibtexAbstractEntry, Integer>();
+
+        void write(int b) {
+            if (length == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffer[length++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int count) {
+            if (length + count > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            System.arraycopy(bytes, 0, buffer, length, count);
+            length += count;
+        }
+
+        /**
+         * unsigned, seven bits per byte, least significant first.
+         */
+        void writeNumber(int number) {
+            while ((number & ~0x7f) != 0) {
+                write((number & 0x7f) | 0x80);
+                number >>>= 7;
+            }
+            write(number);
+        }
+
+        /**
+         * writes 0 for null and the index + 1 otherwise.
+         */
+        void writeString(String string) {
+            if (string == null) {
+                writeNumber(0);
+                return;
+            }
+            Integer index = stringIndices.get(string);
+            if (index == null) {
+                index = Integer.valueOf(strings.size());
+                stringIndices.put(string, index);
+                strings.add(string);
+            }
+            writeNumber(index.intValue() + 1);
+        }
+
+        void writeNode(BibtexNode node) throws IOException {
+            if (node instanceof BibtexEntry) {
+                final BibtexEntry entry = (BibtexEntry) node;
+                write(ENTRY);
+                writeString(entry.getEntryType());
+                writeString(entry.getEntryKey());
+                // the position of the parent + 1, or 0 - then the fields
+                // inherited from an entry of another file are saved as
+                // fields of entry.
+                final Integer parent = entryIndices.get(entry.getInheritedFrom());
+                writeNumber(parent == null ? 0 : parent.intValue() + 1);
+                final ArrayList<String> names = new ArrayList<String>(entry.getFieldCount());
+                final ArrayList<BibtexAbstractValue> values = new ArrayList<BibtexAbstractValue>(entry.getFieldCount());
+                for (int i = 0; i < entry.getFieldCount(); i++) {
+                    names.add(entry.getFieldName(i));
+                    values.add(entry.getFieldValue(i));
+                }
+                if (parent == null)
+                    entry.getInheritedFields(names, values);
+                writeNumber(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    writeString(names.get(i));
+                    writeNode(values.get(i));
+                }
+            } else if (node instanceof BibtexMacroDefinition) {
+                final BibtexMacroDefinition definition = (BibtexMacroDefinition) node;
+                write(MACRO_DEFINITION);
+                writeString(definition.getKey());
+                writeNode(definition.getValue());
+            } else if (node instanceof BibtexPreamble) {
+                write(PREAMBLE);
+                writeNode(((BibtexPreamble) node).getContent());
+            } else if (node instanceof BibtexToplevelComment) {
+                write(TOPLEVEL_COMMENT);
+                writeString(((BibtexToplevelComment) node).getContent());
+            } else if (node instanceof BibtexString) {
+                write(STRING);
+                writeString(((BibtexString) node).getContent());
+            } else if (node instanceof BibtexMacroReference) {
+                write(MACRO_REFERENCE);
+                writeString(((BibtexMacroReference) node).getKey());
+            } else if (node instanceof BibtexConcatenatedValue) {
+                final BibtexConcatenatedValue value = (BibtexConcatenatedValue) node;
+                write(CONCATENATED_VALUE);
+                writeNumber(value.getValueCount());
+                for (int i = 0; i < value.getValueCount(); i++)
+                    writeNode(value.getValue(i));
+            } else if (node instanceof BibtexMultipleValues) {
+                final BibtexMultipleValues values = (BibtexMultipleValues) node;
+                write(MULTIPLE_VALUES);
+                writeNumber(values.getValues().size());
+                for (Iterator<?> it = values.getValues().iterator(); it.hasNext();)
+                    writeNode((BibtexNode) it.next());
+            } else if (node instanceof BibtexPersonList) {
+                final BibtexPersonList list = (BibtexPersonList) node;
+                write(PERSON_LIST);
+                writeNumber(list.getList().size());
+                for (Iterator<?> it = list.getList().iterator(); it.hasNext();) {
+                    final BibtexPerson person = (BibtexPerson) it.next();
+                    write(person.isOthers() ? PERSON_IS_OTHERS : 0);
+                    writeString(person.getFirst());
+                    writeString(person.getPreLast());
+                    writeString(person.getLast());
+                    writeString(person.getLineage());
+                }
+            } else {
+                throw new IOException("can't write nodes of type " + node.getClass().getName());
+            }
+        }
+    }
+
+    private static final class Reader {
+        final BibtexFile factory;
+
+        final byte[] bytes;
+
+        int position;
+
+        String[] strings;
+
+        /**
+         * the entries that inherit from another entry, and the positions of
+         * those entries.
+         */
+        final ArrayList<BibtexEntry> heirs = new ArrayList<BibtexEntry>();
+
+        final ArrayList<Integer> parents = new ArrayList<Integer>();
+
+        Reader(BibtexFile factory, byte[] bytes) {
+            this.factory = factory;
+            this.bytes = bytes;
+        }
+
+        int readInt() {
+            final int result = (bytes[position] & 0xff) << 24 | (bytes[position + 1] & 0xff) << 16
+                    | (bytes[position + 2] & 0xff) << 8 | bytes[position + 3] & 0xff;
+            position += 4;
+            return result;
+        }
+
+        int readNumber() {
+            int result = 0;
+            for (int shift = 0;; shift += 7) {
+                final byte b = bytes[position++];
+                result |= (b & 0x7f) << shift;
+                if (b >= 0)
+                    return result;
+            }
+        }
+
+        String readString() {
+            final int index = readNumber();
+            return index == 0 ? null : strings[index - 1];
+        }
+
+        BibtexNode readNode() throws IOException {
+            switch (bytes[position++]) {
+            case ENTRY: {
+                final BibtexEntry entry = factory.makeEntry(readString(), readString());
+                final int parent = readNumber();
+                if (parent != 0) {
+                    heirs.add(entry);
+                    parents.add(Integer.valueOf(parent - 1));
+                }
+                for (int i = readNumber(); i > 0; i--) {
+                    final String name = readString();
+                    entry.setField(name, (BibtexAbstractValue) readNode());
+                }
+                return entry;
+            }
+            case MACRO_DEFINITION: {
+                final String key = readString();
+                return factory.makeMacroDefinition(key, (BibtexAbstractValue) readNode());
+            }
+            case PREAMBLE:
+                return factory.makePreamble((BibtexAbstractValue) readNode());
+            case TOPLEVEL_COMMENT:
+                return factory.makeToplevelComment(readString());
+            case STRING:
+                return factory.makeString(readString());
+            case MACRO_REFERENCE:
+                return factory.makeMacroReference(readString());
+            case CONCATENATED_VALUE: {
+                final BibtexAbstractValue[] values = new BibtexAbstractValue[readNumber()];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = (BibtexAbstractValue) readNode();
+                return factory.makeConcatenatedValue(values);
+            }
+            case MULTIPLE_VALUES: {
+                final BibtexMultipleValues values = factory.makeBibtexMultipleValues();
+                for (int i = readNumber(); i > 0; i--)
+                    values.addValue((BibtexAbstractValue) readNode());
+                return values;
+            }
+            case PERSON_LIST: {
+                final BibtexPersonList list = factory.makePersonList();
+                for (int i = readNumber(); i > 0; i--) {
+                    final boolean isOthers = (bytes[position++] & PERSON_IS_OTHERS) != 0;
+                    final String first = readString(), preLast = readString(), last = readString();
+                    list.add(factory.makePerson(first, preLast, last, readString(), isOthers));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("corrupt snapshot: unknown node type " + bytes[position - 1]);
+            }
+        }
+    }
+}
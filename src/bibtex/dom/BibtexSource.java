@@ -0,0 +1,152 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A file that top level entries have been parsed from, as it was at the time
+ * - see BibtexParser.setKeepSourceSpans(). Each entry then knows its Span, the
+ * bytes of the file that it was parsed from, and BibtexWriter copies those
+ * bytes instead of rendering the entry again as long as neither the entry nor
+ * the file have changed.
+ */
+public final class BibtexSource {
+
+    private final Path path;
+
+    private final Charset charset;
+
+    private final long size;
+
+    private final long lastModified;
+
+    /**
+     * Remembers the current size and modification time of the file at path.
+     */
+    public BibtexSource(Path path, Charset charset) throws IOException {
+
+        assert path != null : "path parameter may not be null.";
+        assert charset != null : "charset parameter may not be null.";
+
+        this.path = path;
+        this.charset = charset;
+        this.size = Files.size(path);
+        this.lastModified = Files.getLastModifiedTime(path).toMillis();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return false if the size or the modification time of the file have
+     *         changed since this object was created, or if the file is gone.
+     */
+    public boolean isUnchanged() {
+        try {
+            return Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param offset
+     *            the position of the first byte, which is usually whitespace
+     *            that precedes the entry.
+     * @param prefixLength
+     *            the number of bytes before the entry itself.
+     * @param bodyLength
+     *            the number of bytes of the entry itself.
+     * @param length
+     *            the number of bytes in total - anything after the body is
+     *            whitespace that follows the entry.
+     */
+    public Span span(long offset, int prefixLength, int bodyLength, int length) {
+
+        assert offset >= 0 : "offset parameter may not be negative.";
+        assert 0 <= prefixLength && 0 <= bodyLength && prefixLength + bodyLength <= length : "the lengths must describe parts of the span.";
+
+        return new Span(this, offset, prefixLength, bodyLength, length, false);
+    }
+
+    /**
+     * The bytes that a top level entry was parsed from, together with the
+     * whitespace around it. The spans of consecutive entries are adjacent.
+     */
+    public static final class Span {
+
+        private final BibtexSource source;
+
+        private final long offset;
+
+        private final int prefixLength, bodyLength, length;
+
+        private final boolean modified;
+
+        Span(BibtexSource source, long offset, int prefixLength, int bodyLength, int length, boolean modified) {
+            this.source = source;
+            this.offset = offset;
+            this.prefixLength = prefixLength;
+            this.bodyLength = bodyLength;
+            this.length = length;
+            this.modified = modified;
+        }
+
+        public BibtexSource getSource() {
+            return source;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getPrefixLength() {
+            return prefixLength;
+        }
+
+        public int getBodyLength() {
+            return bodyLength;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return true if the entry has changed since it was parsed, so only
+         *         the whitespace around its body is still worth copying.
+         */
+        public boolean isModified() {
+            return modified;
+        }
+
+        /**
+         * @return the same span, but marked as modified.
+         */
+        Span modified() {
+            return modified ? this : new Span(source, offset, prefixLength, bodyLength, length, true);
+        }
+
+        /**
+         * @return this span with the given length, e.g. to include the
+         *         whitespace at the end of a file.
+         */
+        public Span withLength(int length) {
+
+            assert length >= prefixLength + bodyLength : "length parameter must include the body.";
+
+            return new Span(source, offset, prefixLength, bodyLength, length, modified);
+        }
+    }
+}
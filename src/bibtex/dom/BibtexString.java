@@ -50,9 +50,60 @@ public class BibtexString extends BibtexAbstractValue {
 	    
 	    assert content!=null: "content parameter may not be null.";
 	    
+		if (immutable)
+			throw new UnsupportedOperationException("This string is immutable, it may be shared by several entries.");
 		this.content = content;
 	}
 
+	private boolean immutable;
+
+	/**
+	 * Makes this string immutable, so that several entries can share it (see
+	 * bibtex.expansions.MacroReferenceExpander) - setContent() throws an
+	 * UnsupportedOperationException from now on. To change the field of one
+	 * entry, give it a new string with BibtexEntry.setField().
+	 */
+	public void makeImmutable() {
+		this.immutable = true;
+	}
+
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	/**
+	 * @return true if Integer.parseInt(string) would succeed - without
+	 *         throwing and catching an exception for all the strings that
+	 *         aren't numbers.
+	 */
+	static boolean isInteger(String string) {
+		final int length = string.length();
+		if (length == 0)
+			return false;
+		int i = 0;
+		final char first = string.charAt(0);
+		if (first == '-' || first == '+') {
+			if (length == 1)
+				return false;
+			i = 1;
+		}
+		// Integer.parseInt() accepts any unicode digits.
+		long value = 0;
+		for (; i < length; i++) {
+			final int digit = Character.digit(string.charAt(i), 10);
+			if (digit < 0)
+				return false;
+			value = value * 10 + digit;
+			if (value > 1L + Integer.MAX_VALUE)
+				return false;
+		}
+		return first == '-' || value <= Integer.MAX_VALUE;
+	}
+
+	public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+		visitor.visit(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see bibtex.dom.BibtexNode#printBibtex(java.io.PrintWriter)
 	 */
@@ -60,11 +111,12 @@ public class BibtexString extends BibtexAbstractValue {
 	    
 	    assert writer!=null: "writer parameter may not be null.";
 	    
+		// the content may be somewhere else, see BibtexArenaString.
+		final String content = getContent();
 		// is this really a number?
-		try {
-			Integer.parseInt(content);
+		if (isInteger(content)) {
 			writer.print(content);
-		} catch (NumberFormatException nfe) {
+		} else {
 			writer.print('{');
 //			for (int begin = 0; begin < content.length();) {
 //				int end = content.indexOf('\n', begin);
@@ -0,0 +1,165 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stores the content of strings as UTF-8 in large pages, either on the heap
+ * or off the heap in direct buffers. A BibtexFile that has an arena keeps the
+ * BibtexString values here that its symbol table doesn't share, and the
+ * strings themselves only hold their position - see
+ * BibtexFile(BibtexSymbolTable, BibtexStringArena).
+ *
+ * Compared to a String per value, this saves the String and array headers and
+ * keeps the characters out of the garbage collector's way - a file with
+ * millions of entries then needs a much smaller heap. In exchange,
+ * getContent() decodes a new String every time, and the arena only ever grows:
+ * content that is no longer used is released together with the arena.
+ *
+ * Strings are added under a lock, and they can be read concurrently. Direct
+ * buffers count against -XX:MaxDirectMemorySize.
+ */
+public final class BibtexStringArena {
+
+    private static final int PAGE_SIZE = 1 << 20;
+
+    private final boolean direct;
+
+    /**
+     * volatile, since get() doesn't lock and add() replaces the array when it
+     * grows.
+     */
+    private volatile ByteBuffer[] pages = new ByteBuffer[16];
+
+    private int pageCount;
+
+    /**
+     * the page we add to, and the offset of its first free byte.
+     */
+    private ByteBuffer page;
+
+    private int pageFill;
+
+    private long strings, bytes;
+
+    /**
+     * @param direct
+     *            true to keep the pages off the heap.
+     */
+    public BibtexStringArena(boolean direct) {
+        this.direct = direct;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return the position of string, which is what get() needs.
+     */
+    synchronized long add(CharSequence string) {
+        final int length = string.length();
+        int encodedLength = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = string.charAt(i);
+            if (c < 0x80)
+                encodedLength++;
+            else if (c < 0x800)
+                encodedLength += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                encodedLength += 4;
+                i++;
+            } else if (Character.isSurrogate(c))
+                encodedLength++; // a '?', like String.getBytes() would do it.
+            else
+                encodedLength += 3;
+        }
+        final int needed = encodedLength + 5;
+        if (page == null || pageFill + needed > page.capacity()) {
+            // large strings get a page of their own.
+            page = direct ? ByteBuffer.allocateDirect(Math.max(PAGE_SIZE, needed)) : ByteBuffer.allocate(Math.max(
+                    PAGE_SIZE, needed));
+            pageFill = 0;
+            if (pageCount == pages.length) {
+                final ByteBuffer[] newPages = new ByteBuffer[pageCount * 2];
+                System.arraycopy(pages, 0, newPages, 0, pageCount);
+                pages = newPages;
+            }
+            pages[pageCount++] = page;
+        }
+        final long position = (long) (pageCount - 1) << 32 | pageFill;
+        int pos = pageFill;
+        // the length as a varint, then the bytes.
+        int remaining = encodedLength;
+        while (remaining >= 0x80) {
+            page.put(pos++, (byte) (remaining | 0x80));
+            remaining >>>= 7;
+        }
+        page.put(pos++, (byte) remaining);
+        for (int i = 0; i < length; i++) {
+            final char c = string.charAt(i);
+            if (c < 0x80) {
+                page.put(pos++, (byte) c);
+            } else if (c < 0x800) {
+                page.put(pos++, (byte) (0xc0 | c >> 6));
+                page.put(pos++, (byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                page.put(pos++, (byte) (0xf0 | codePoint >> 18));
+                page.put(pos++, (byte) (0x80 | codePoint >> 12 & 0x3f));
+                page.put(pos++, (byte) (0x80 | codePoint >> 6 & 0x3f));
+                page.put(pos++, (byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                page.put(pos++, (byte) '?');
+            } else {
+                page.put(pos++, (byte) (0xe0 | c >> 12));
+                page.put(pos++, (byte) (0x80 | c >> 6 & 0x3f));
+                page.put(pos++, (byte) (0x80 | c & 0x3f));
+            }
+        }
+        pageFill = pos;
+        strings++;
+        bytes += encodedLength;
+        return position;
+    }
+
+    /**
+     * @return the string that add() stored at position.
+     */
+    String get(long position) {
+        // a duplicate, since we must not move the position of a shared
+        // buffer.
+        final ByteBuffer source = pages[(int) (position >>> 32)].duplicate();
+        int pos = (int) position;
+        int length = 0;
+        for (int shift = 0;; shift += 7) {
+            final byte b = source.get(pos++);
+            length |= (b & 0x7f) << shift;
+            if (b >= 0)
+                break;
+        }
+        final byte[] encoded = new byte[length];
+        source.position(pos);
+        source.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of bytes of all pages.
+     */
+    public synchronized long getCapacity() {
+        long capacity = 0;
+        for (int i = 0; i < pageCount; i++)
+            capacity += pages[i].capacity();
+        return capacity;
+    }
+
+    public synchronized String toString() {
+        return strings + " strings, " + bytes + " bytes of UTF-8 in " + pageCount + (direct ? " direct" : " heap")
+                + " pages";
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Canonical instances of the strings that occur over and over again in a
+ * bibtex file: entry types, field names and macro keys, but also short field
+ * values such as publishers, journals, months and years. Each BibtexFile has
+ * one (it can also be shared between files, see BibtexFile(BibtexSymbolTable)),
+ * and the factory methods of BibtexFile use it, so that equal strings are
+ * stored only once.
+ *
+ * Unlike String.intern(), lookups don't go through the JVM-wide string table
+ * and they work on any CharSequence, e.g. the parser's buffer - a String is
+ * only allocated for a string that isn't in the table yet.
+ *
+ * The table is thread safe, since the parallel parser and the parallel
+ * expanders share one BibtexFile between all threads. Lookups of strings that
+ * are in the table already - by far the most - don't lock: they probe the
+ * current arrays, which are only ever filled in, and replaced as a whole when
+ * the table grows. A lookup that misses, maybe just because it raced with an
+ * insert, locks the table and looks again before inserting. The statistics
+ * are counted per thread, and the counts of threads that have died are added
+ * up, so a table that many short-lived threads use (e.g. the workers of each
+ * parallel parse) doesn't keep their counters.
+ */
+public final class BibtexSymbolTable {
+
+    /**
+     * Longer values are rarely repeated, so they are not worth the lookup.
+     */
+    public static final int DEFAULT_MAX_VALUE_LENGTH = 64;
+
+    /**
+     * Once the table is this full, new strings are not added anymore.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1 << 18;
+
+    private final int maxValueLength;
+
+    private final int maxSize;
+
+    /**
+     * open addressing with linear probing. hashes[i] is the hash code of
+     * symbols[i], which is null for empty slots. A new slot gets its hash
+     * before its symbol, but without a lock, a lookup may still see a symbol
+     * with hash 0 - it compares the characters of the symbols it finds, so
+     * this only makes it miss.
+     */
+    private static final class Slots {
+        final String[] symbols;
+
+        final int[] hashes;
+
+        Slots(int capacity) {
+            symbols = new String[capacity];
+            hashes = new int[capacity];
+        }
+    }
+
+    private volatile Slots slots = new Slots(1024);
+
+    /**
+     * guarded by this.
+     */
+    private int size;
+
+    private static final class Counters {
+        long lookups, hits, bytesSaved;
+
+        /**
+         * the thread that counts, or null for the sums of the threads that
+         * have died.
+         */
+        final WeakReference<Thread> thread;
+
+        Counters(Thread thread) {
+            this.thread = thread == null ? null : new WeakReference<Thread>(thread);
+        }
+
+        boolean isDead() {
+            final Thread thread = this.thread.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        void add(Counters counters) {
+            lookups += counters.lookups;
+            hits += counters.hits;
+            bytesSaved += counters.bytesSaved;
+        }
+    }
+
+    private final ThreadLocal<Counters> counters = new ThreadLocal<Counters>() {
+        protected Counters initialValue() {
+            final Counters result = new Counters(Thread.currentThread());
+            synchronized (liveCounters) {
+                foldDeadCounters();
+                liveCounters.add(result);
+            }
+            return result;
+        }
+    };
+
+    /**
+     * the counters of the threads that have looked something up and that
+     * were alive the last time we looked. guarded by itself, as is
+     * deadCounters.
+     */
+    private final ArrayList<Counters> liveCounters = new ArrayList<Counters>();
+
+    private final Counters deadCounters = new Counters(null);
+
+    public BibtexSymbolTable() {
+        this(DEFAULT_MAX_VALUE_LENGTH, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxValueLength
+     *            values that are longer are not canonicalized.
+     * @param maxSize
+     *            the maximum number of strings in the table.
+     */
+    public BibtexSymbolTable(int maxValueLength, int maxSize) {
+
+        assert maxValueLength >= 0 : "maxValueLength parameter may not be negative.";
+        assert maxSize >= 0 : "maxSize parameter may not be negative.";
+
+        this.maxValueLength = maxValueLength;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the canonical lower case version of name. This is equal to
+     *         name.toString().toLowerCase().
+     */
+    public String name(CharSequence name) {
+
+        assert name != null : "name parameter may not be null.";
+
+        final int length = name.length();
+        for (int i = 0; i < length; i++) {
+            final char c = name.charAt(i);
+            if (c >= 0x80 || 'A' <= c && c <= 'Z')
+                return lookup(name.toString().toLowerCase(), true);
+        }
+        return lookup(name, true);
+    }
+
+    /**
+     * @return the canonical version of value, or value.toString() if value is
+     *         too long to be canonicalized.
+     */
+    public String value(CharSequence value) {
+
+        assert value != null : "value parameter may not be null.";
+
+        if (value.length() > maxValueLength)
+            return value.toString();
+        return lookup(value, true);
+    }
+
+    /**
+     * Like value(), but without making a new String for values that are too
+     * long or that don't fit into the table anymore.
+     *
+     * @return the canonical version of value, or null.
+     */
+    String canonicalValue(CharSequence value) {
+        if (value.length() > maxValueLength)
+            return null;
+        return lookup(value, false);
+    }
+
+    /**
+     * @param always
+     *            false to return null instead of a String that isn't in the
+     *            table.
+     */
+    private String lookup(CharSequence string, boolean always) {
+        final Counters counters = this.counters.get();
+        counters.lookups++;
+        final int hash = string instanceof String ? string.hashCode() : hashCode(string);
+        String symbol = find(slots, string, hash);
+        if (symbol == null) {
+            synchronized (this) {
+                symbol = find(slots, string, hash);
+                if (symbol == null)
+                    return insert(string, hash, always);
+            }
+        }
+        counters.hits++;
+        if (symbol != string) {
+            // an estimate of the String we don't have to keep: object header,
+            // hash, array reference, array header and (compact) chars.
+            counters.bytesSaved += 24 + ((16 + symbol.length() + 7) & ~7);
+        }
+        return symbol;
+    }
+
+    /**
+     * @return the symbol that is equal to string, or null.
+     */
+    private static String find(Slots slots, CharSequence string, int hash) {
+        final String[] symbols = slots.symbols;
+        final int[] hashes = slots.hashes;
+        final int length = string.length();
+        final int mask = symbols.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            final String symbol = symbols[slot];
+            if (symbol == null)
+                return null;
+            if (hashes[slot] == hash && symbol.length() == length && contentEquals(symbol, string))
+                return symbol;
+        }
+    }
+
+    /**
+     * Only called with the lock held, after find() has missed.
+     */
+    private String insert(CharSequence string, int hash, boolean always) {
+        if (size >= maxSize)
+            return always ? string.toString() : null;
+        final String symbol = string.toString();
+        final Slots slots = this.slots;
+        final int mask = slots.symbols.length - 1;
+        int slot = hash & mask;
+        while (slots.symbols[slot] != null)
+            slot = (slot + 1) & mask;
+        slots.hashes[slot] = hash;
+        slots.symbols[slot] = symbol;
+        size++;
+        if (2 * size > slots.symbols.length)
+            grow();
+        return symbol;
+    }
+
+    private static int hashCode(CharSequence string) {
+        int hash = 0;
+        for (int i = 0, length = string.length(); i < length; i++)
+            hash = 31 * hash + string.charAt(i);
+        return hash;
+    }
+
+    private static boolean contentEquals(String symbol, CharSequence string) {
+        if (symbol == string)
+            return true;
+        for (int i = symbol.length() - 1; i >= 0; i--) {
+            if (symbol.charAt(i) != string.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fills new arrays before the lookups get to see them.
+     */
+    private void grow() {
+        final Slots oldSlots = slots;
+        final Slots newSlots = new Slots(oldSlots.symbols.length * 2);
+        final int mask = newSlots.symbols.length - 1;
+        for (int i = 0; i < oldSlots.symbols.length; i++) {
+            if (oldSlots.symbols[i] == null)
+                continue;
+            int slot = oldSlots.hashes[i] & mask;
+            while (newSlots.symbols[slot] != null)
+                slot = (slot + 1) & mask;
+            newSlots.symbols[slot] = oldSlots.symbols[i];
+            newSlots.hashes[slot] = oldSlots.hashes[i];
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * @return the number of strings in the table.
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Adds the counters of the threads that have died to deadCounters, and
+     * forgets them. Only called with the lock of liveCounters held.
+     */
+    private void foldDeadCounters() {
+        for (int i = liveCounters.size() - 1; i >= 0; i--) {
+            final Counters counters = liveCounters.get(i);
+            if (counters.isDead()) {
+                deadCounters.add(counters);
+                final Counters last = liveCounters.remove(liveCounters.size() - 1);
+                if (last != counters)
+                    liveCounters.set(i, last);
+            }
+        }
+    }
+
+    /**
+     * The statistics of a thread are complete once it has finished (e.g. the
+     * parser has returned), not while it is still looking up strings.
+     * 
+     * @return the lookups, hits and bytes saved of all threads.
+     */
+    private long[] sumCounters() {
+        final Counters sums = new Counters(null);
+        synchronized (liveCounters) {
+            foldDeadCounters();
+            sums.add(deadCounters);
+            for (int i = 0; i < liveCounters.size(); i++)
+                sums.add(liveCounters.get(i));
+        }
+        return new long[] { sums.lookups, sums.hits, sums.bytesSaved };
+    }
+
+    /**
+     * @return the number of lookups so far, not counting values that were too
+     *         long.
+     */
+    public long getLookups() {
+        return sumCounters()[0];
+    }
+
+    /**
+     * @return the number of lookups that found the string in the table.
+     */
+    public long getHits() {
+        return sumCounters()[1];
+    }
+
+    /**
+     * @return an estimate of the heap space that the hits saved, compared to
+     *         keeping a String per occurrence.
+     */
+    public long getBytesSaved() {
+        return sumCounters()[2];
+    }
+
+    public String toString() {
+        final long[] sums = sumCounters();
+        final long lookups = sums[0], hits = sums[1];
+        return getSize() + " symbols, " + hits + " hits in " + lookups + " lookups ("
+                + (lookups == 0 ? 0 : hits * 100 / lookups) + "%), about " + sums[2] / 1024 + " KB saved";
+    }
+}
@@ -42,9 +42,14 @@ public final class BibtexToplevelComment extends BibtexAbstractEntry {
 	    
 	    assert content!=null: "content parameter may not be null.";
 	    
+		markModified();
 		this.content = content;
 	}
 
+	public <X extends Exception> void accept(BibtexVisitor<X> visitor) throws X {
+		visitor.visit(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see bibtex.dom.BibtexNode#printBibtex(java.io.PrintWriter)
 	 */
@@ -0,0 +1,58 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+/**
+ * Does something for each type of BibtexNode, without instanceof chains - see
+ * BibtexNode.accept(). The visit methods do nothing; override the ones you
+ * need. To visit the children of a node, call accept() on them from the visit
+ * method of the node, e.g.
+ *
+ * <pre>
+ * public void visit(BibtexEntry entry) {
+ *     for (Iterator it = entry.getFields().values().iterator(); it.hasNext();)
+ *         ((BibtexAbstractValue) it.next()).accept(this);
+ * }
+ * </pre>
+ *
+ * @param <X>
+ *            the type of exception that the visit methods may throw, e.g.
+ *            RuntimeException if they don't throw checked exceptions.
+ */
+public abstract class BibtexVisitor<X extends Exception> {
+
+    public void visit(BibtexFile file) throws X {
+    }
+
+    public void visit(BibtexEntry entry) throws X {
+    }
+
+    public void visit(BibtexMacroDefinition macroDefinition) throws X {
+    }
+
+    public void visit(BibtexPreamble preamble) throws X {
+    }
+
+    public void visit(BibtexToplevelComment comment) throws X {
+    }
+
+    public void visit(BibtexString string) throws X {
+    }
+
+    public void visit(BibtexMacroReference macroReference) throws X {
+    }
+
+    public void visit(BibtexConcatenatedValue concatenatedValue) throws X {
+    }
+
+    public void visit(BibtexMultipleValues multipleValues) throws X {
+    }
+
+    public void visit(BibtexPersonList personList) throws X {
+    }
+
+    public void visit(BibtexPerson person) throws X {
+    }
+}
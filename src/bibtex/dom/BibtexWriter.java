@@ -0,0 +1,477 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * Writes bibtex nodes in the same format as printBibtex(), but faster: this
+ * buffers the output itself without any locking, and it writes whole buffers
+ * to a Writer, an Appendable or a channel. For example,
+ *
+ * <pre>
+ * BibtexWriter writer = new BibtexWriter(new FileOutputStream(&quot;out.bib&quot;).getChannel(), Charset.forName(&quot;UTF-8&quot;));
+ * writer.write(bibtexFile);
+ * writer.close();
+ * </pre>
+ *
+ * Nothing is written until the buffer is full or flush() is called.
+ *
+ * Writing a whole file to a channel, the entries that have a source span (see
+ * BibtexParser.setKeepSourceSpans()) are copied from their source file with
+ * FileChannel.transferTo() as long as they haven't changed, and the entries
+ * that have changed keep the whitespace around them. This needs the source
+ * file to be unchanged and in the charset of this writer, and it must not be
+ * the file that is being written.
+ */
+public final class BibtexWriter implements Flushable, Closeable {
+
+    private static final int BUFFERLEN = 16 * 1024;
+
+    private final Appendable appendable;
+
+    private final Writer writer;
+
+    private final WritableByteChannel channel;
+
+    private final CharsetEncoder encoder;
+
+    private final ByteBuffer bytes;
+
+    private final char[] buffer = new char[BUFFERLEN];
+
+    private int bufferPos;
+
+    private String lineSeparator = System.getProperty("line.separator");
+
+    private int parallelism = 1;
+
+    /**
+     * the bytes from copySource that are yet to be copied - see copy().
+     */
+    private FileChannel copySource;
+
+    private long copyFrom, copyTo;
+
+    /**
+     * @param out
+     *            a Writer, a StringBuilder or any other Appendable.
+     */
+    public BibtexWriter(Appendable out) {
+
+        assert out != null : "out parameter may not be null.";
+
+        this.appendable = out;
+        this.writer = out instanceof Writer ? (Writer) out : null;
+        this.channel = null;
+        this.encoder = null;
+        this.bytes = null;
+    }
+
+    /**
+     * Unmappable characters are replaced, like a PrintWriter would do it.
+     */
+    public BibtexWriter(WritableByteChannel channel, Charset charset) {
+
+        assert channel != null : "channel parameter may not be null.";
+        assert charset != null : "charset parameter may not be null.";
+
+        this.appendable = null;
+        this.writer = null;
+        this.channel = channel;
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(
+                CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate((int) (BUFFERLEN * encoder.maxBytesPerChar()) + 16);
+    }
+
+    /**
+     * @param lineSeparator
+     *            the default is the line.separator system property, like for
+     *            PrintWriter.println().
+     */
+    public void setLineSeparator(String lineSeparator) {
+
+        assert lineSeparator != null : "lineSeparator parameter may not be null.";
+
+        this.lineSeparator = lineSeparator;
+    }
+
+    /**
+     * Writing to a channel, write(BibtexFile) can render the entries on several
+     * threads and still writes them in file order. The file must not change
+     * while it's being written. This is ignored for Writers and Appendables,
+     * and for charsets like UTF-16 whose encoders write a byte order mark or
+     * keep a shift state.
+     *
+     * @param parallelism
+     *            the number of threads, 1 (the default) writes sequentially.
+     */
+    public void setParallelism(int parallelism) {
+
+        assert parallelism > 0 : "parallelism parameter must be positive.";
+
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Writes all entries of file.
+     */
+    public void write(BibtexFile file) throws IOException {
+
+        assert file != null : "file parameter may not be null.";
+
+        if (channel != null && hasSourceSpans(file)) {
+            writeWithSourceSpans(file);
+            return;
+        }
+        if (parallelism > 1 && channel != null && ParallelWriter.canEncodeInChunks(encoder.charset())) {
+            // whatever we have buffered comes first.
+            flushBuffer();
+            if (bufferPos == 0) {
+                ParallelWriter.write(file, channel, encoder.charset(), lineSeparator, parallelism);
+                return;
+            }
+        }
+        for (BibtexAbstractEntry entry : file.getEntries())
+            write(entry);
+    }
+
+    private static boolean hasSourceSpans(BibtexFile file) {
+        for (BibtexAbstractEntry entry : file.getEntries()) {
+            if (entry.getSourceSpan() != null)
+                return true;
+        }
+        return false;
+    }
+
+    private void writeWithSourceSpans(BibtexFile file) throws IOException {
+        // the channels of the usable source files, or null for the others.
+        final IdentityHashMap<BibtexSource, FileChannel> sources = new IdentityHashMap<BibtexSource, FileChannel>();
+        try {
+            // true if the last bytes we wrote may not be the end of a line.
+            boolean inLine = false;
+            // where the last span that we wrote ended.
+            BibtexSource lastSource = null;
+            long lastEnd = -1;
+            for (BibtexAbstractEntry entry : file.getEntries()) {
+                final BibtexSource.Span span = entry.getSourceSpan();
+                final FileChannel source = span == null ? null : open(sources, span.getSource());
+                if (source == null) {
+                    flushCopy();
+                    if (inLine)
+                        newLine();
+                    write(entry);
+                    inLine = false;
+                    lastSource = null;
+                    continue;
+                }
+                final long offset = span.getOffset();
+                if (inLine && span.getPrefixLength() == 0 && !(span.getSource() == lastSource && offset == lastEnd)) {
+                    flushCopy();
+                    newLine();
+                }
+                if (!span.isModified()) {
+                    copy(source, offset, offset + span.getLength());
+                } else {
+                    final long bodyEnd = offset + span.getPrefixLength() + span.getBodyLength();
+                    copy(source, offset, offset + span.getPrefixLength());
+                    flushCopy();
+                    writeBody(entry);
+                    // the whitespace after the body, if any.
+                    copy(source, bodyEnd, offset + span.getLength());
+                }
+                inLine = true;
+                lastSource = span.getSource();
+                lastEnd = offset + span.getLength();
+            }
+            flushCopy();
+        } finally {
+            copySource = null;
+            for (FileChannel source : sources.values()) {
+                if (source != null)
+                    source.close();
+            }
+        }
+    }
+
+    private FileChannel open(IdentityHashMap<BibtexSource, FileChannel> sources, BibtexSource source)
+            throws IOException {
+        if (sources.containsKey(source))
+            return sources.get(source);
+        FileChannel sourceChannel = null;
+        if (source.getCharset().equals(encoder.charset()) && source.isUnchanged())
+            sourceChannel = FileChannel.open(source.getPath(), StandardOpenOption.READ);
+        sources.put(source, sourceChannel);
+        return sourceChannel;
+    }
+
+    /**
+     * Copies the bytes [from, to) of source to the channel - adjacent ranges
+     * are copied with a single transferTo().
+     */
+    private void copy(FileChannel source, long from, long to) throws IOException {
+        if (from == to)
+            return;
+        if (source == copySource && from == copyTo) {
+            copyTo = to;
+            return;
+        }
+        flushCopy();
+        copySource = source;
+        copyFrom = from;
+        copyTo = to;
+    }
+
+    private void flushCopy() throws IOException {
+        if (copySource == null)
+            return;
+        // what we have buffered comes first.
+        flushBuffer();
+        while (copyFrom < copyTo) {
+            final long transferred = copySource.transferTo(copyFrom, copyTo - copyFrom, channel);
+            if (transferred <= 0)
+                throw new IOException("can't copy bytes " + copyFrom + " to " + copyTo + " of the source file.");
+            copyFrom += transferred;
+        }
+        copySource = null;
+    }
+
+    /**
+     * Writes node just like node.printBibtex() would.
+     */
+    public void write(BibtexNode node) throws IOException {
+
+        assert node != null : "node parameter may not be null.";
+
+        if (node instanceof BibtexAbstractEntry) {
+            writeBody((BibtexAbstractEntry) node);
+            newLine();
+        } else if (node instanceof BibtexString) {
+            final String content = ((BibtexString) node).getContent();
+            if (BibtexString.isInteger(content)) {
+                append(content);
+            } else {
+                append('{');
+                append(content);
+                append('}');
+            }
+        } else if (node instanceof BibtexMacroReference) {
+            append(((BibtexMacroReference) node).getKey());
+        } else if (node instanceof BibtexConcatenatedValue) {
+            final BibtexConcatenatedValue value = (BibtexConcatenatedValue) node;
+            write(value.getValue(0));
+            for (int i = 1; i < value.getValueCount(); i++) {
+                append('#');
+                write(value.getValue(i));
+            }
+        } else if (node instanceof BibtexPersonList) {
+            append('{');
+            boolean isFirst = true;
+            for (Iterator<?> it = ((BibtexPersonList) node).getList().iterator(); it.hasNext();) {
+                if (isFirst)
+                    isFirst = false;
+                else
+                    append(" and ");
+                write((BibtexPerson) it.next());
+            }
+            append('}');
+        } else if (node instanceof BibtexPerson) {
+            writePerson((BibtexPerson) node);
+        } else if (node instanceof BibtexMultipleValues) {
+            for (Iterator<?> it = ((BibtexMultipleValues) node).getValues().iterator(); it.hasNext();) {
+                write((BibtexAbstractValue) it.next());
+                if (it.hasNext()) {
+                    newLine();
+                    newLine();
+                }
+            }
+        } else if (node instanceof BibtexFile) {
+            write((BibtexFile) node);
+        } else {
+            assert false : "unexpected node: " + node.getClass().getName();
+        }
+    }
+
+    /**
+     * Writes a top level entry without the line separator at its end.
+     */
+    private void writeBody(BibtexAbstractEntry node) throws IOException {
+        if (node instanceof BibtexEntry) {
+            writeEntry((BibtexEntry) node);
+        } else if (node instanceof BibtexMacroDefinition) {
+            append("@string{");
+            append(((BibtexMacroDefinition) node).getKey());
+            append('=');
+            write(((BibtexMacroDefinition) node).getValue());
+            append('}');
+        } else if (node instanceof BibtexPreamble) {
+            append("@preamble{");
+            newLine();
+            write(((BibtexPreamble) node).getContent());
+            append('}');
+        } else if (node instanceof BibtexToplevelComment) {
+            append(((BibtexToplevelComment) node).getContent());
+        } else {
+            assert false : "unexpected node: " + node.getClass().getName();
+        }
+    }
+
+    private void writeEntry(BibtexEntry entry) throws IOException {
+        append('@');
+        append(entry.getEntryType());
+        append('{');
+        append(entry.getEntryKey());
+        append(',');
+        newLine();
+        for (int i = 0; i < entry.getFieldCount(); i++)
+            writeFieldValue(entry.getFieldName(i), entry.getFieldValue(i));
+        if (entry.getInheritedFrom() != null) {
+            final ArrayList<String> names = new ArrayList<String>();
+            final ArrayList<BibtexAbstractValue> values = new ArrayList<BibtexAbstractValue>();
+            entry.getInheritedFields(names, values);
+            for (int i = 0; i < names.size(); i++)
+                writeFieldValue(names.get(i), values.get(i));
+        }
+        append('}');
+    }
+
+    private void writeFieldValue(String name, BibtexAbstractValue value) throws IOException {
+        if (value instanceof BibtexMultipleValues) {
+            for (Iterator<?> it = ((BibtexMultipleValues) value).getValues().iterator(); it.hasNext();)
+                writeField(name, (BibtexAbstractValue) it.next());
+        } else {
+            writeField(name, value);
+        }
+    }
+
+    private void writeField(String name, BibtexAbstractValue value) throws IOException {
+        append('\t');
+        append(name);
+        append('=');
+        write(value);
+        append(',');
+        newLine();
+    }
+
+    private void writePerson(BibtexPerson person) throws IOException {
+        if (person.isOthers()) {
+            append("others");
+            return;
+        }
+        if (person.getPreLast() != null) {
+            append(person.getPreLast());
+            append(' ');
+        }
+        if (person.getLast() != null)
+            append(person.getLast());
+        if (person.getLineage() != null || person.getFirst() != null)
+            append(", ");
+        if (person.getLineage() != null) {
+            append(person.getLineage());
+            append(", ");
+        }
+        if (person.getFirst() != null)
+            append(person.getFirst());
+        else if (person.getLineage() != null)
+            append("{}");
+    }
+
+    private void newLine() throws IOException {
+        append(lineSeparator);
+    }
+
+    private void append(char c) throws IOException {
+        if (bufferPos == BUFFERLEN)
+            flushBuffer();
+        buffer[bufferPos++] = c;
+    }
+
+    private void append(String s) throws IOException {
+        int begin = 0;
+        final int length = s.length();
+        while (begin < length) {
+            if (bufferPos == BUFFERLEN)
+                flushBuffer();
+            final int end = Math.min(length, begin + BUFFERLEN - bufferPos);
+            s.getChars(begin, end, buffer, bufferPos);
+            bufferPos += end - begin;
+            begin = end;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.write(buffer, 0, bufferPos);
+        } else if (appendable != null) {
+            appendable.append(CharBuffer.wrap(buffer, 0, bufferPos));
+        } else {
+            final CharBuffer chars = CharBuffer.wrap(buffer, 0, bufferPos);
+            while (true) {
+                final CoderResult result = encoder.encode(chars, bytes, false);
+                writeBytes();
+                if (result.isUnderflow())
+                    break;
+            }
+            if (chars.hasRemaining()) {
+                // the first half of a surrogate pair, the rest is still to
+                // come.
+                buffer[0] = chars.get();
+                bufferPos = 1;
+                return;
+            }
+        }
+        bufferPos = 0;
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        bytes.clear();
+    }
+
+    /**
+     * Writes out the buffer and flushes the underlying Writer, if there is one.
+     */
+    public void flush() throws IOException {
+        flushCopy();
+        flushBuffer();
+        if (writer != null)
+            writer.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying Writer or channel.
+     */
+    public void close() throws IOException {
+        flush();
+        if (encoder != null) {
+            final CharBuffer chars = CharBuffer.wrap(buffer, 0, bufferPos);
+            encoder.encode(chars, bytes, true);
+            encoder.flush(bytes);
+            writeBytes();
+            bufferPos = 0;
+        }
+        if (channel != null)
+            channel.close();
+        else if (appendable instanceof Closeable)
+            ((Closeable) appendable).close();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.dom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Renders the entries of a file in chunks on a fork-join pool, each chunk into
+ * its own byte buffers, and writes the chunks to the channel in file order -
+ * with a single gathering write per chunk if the channel supports it (a
+ * FileChannel does). Only a few chunks per thread are in flight at any time, so
+ * the memory needed doesn't depend on the size of the file.
+ *
+ * @see BibtexWriter#setParallelism(int)
+ */
+final class ParallelWriter {
+
+    private static final int ENTRIES_PER_CHUNK = 1024;
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ParallelWriter() {
+    }
+
+    /**
+     * A chunk is encoded on its own, so this is only possible for charsets
+     * whose encoders don't write a byte order mark (e.g. UTF-16) and don't
+     * keep a shift state (e.g. ISO-2022-JP): the bytes of two pieces of text
+     * must not depend on whether they were encoded together.
+     */
+    static boolean canEncodeInChunks(Charset charset) {
+        final String piece = "a\u00e9\u3042";
+        try {
+            final ByteBuffer once = encode(charset, piece);
+            final ByteBuffer twice = encode(charset, piece + piece);
+            if (twice.remaining() != 2 * once.remaining())
+                return false;
+            final ByteBuffer first = twice.duplicate(), second = twice.duplicate();
+            first.limit(once.remaining());
+            second.position(once.remaining());
+            return first.equals(once) && second.equals(once);
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer encode(Charset charset, String text) throws CharacterCodingException {
+        return charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE).encode(CharBuffer.wrap(text));
+    }
+
+    static void write(BibtexFile bibtexFile, WritableByteChannel channel, final Charset charset,
+            final String lineSeparator, int parallelism) throws IOException {
+        final BibtexAbstractEntry[] entries = bibtexFile.getEntries().toArray(new BibtexAbstractEntry[0]);
+        final ArrayDeque<Future<ByteBuffer[]>> pending = new ArrayDeque<Future<ByteBuffer[]>>();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            int next = 0;
+            while (next < entries.length || !pending.isEmpty()) {
+                while (next < entries.length && pending.size() < parallelism * CHUNKS_PER_THREAD) {
+                    final int begin = next;
+                    final int end = Math.min(entries.length, begin + ENTRIES_PER_CHUNK);
+                    pending.addLast(pool.submit(new Callable<ByteBuffer[]>() {
+                        public ByteBuffer[] call() throws IOException {
+                            return render(entries, begin, end, charset, lineSeparator);
+                        }
+                    }));
+                    next = end;
+                }
+                writeFully(channel, pending.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing in parallel", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw (Error) e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static ByteBuffer[] render(BibtexAbstractEntry[] entries, int begin, int end, Charset charset,
+            String lineSeparator) throws IOException {
+        final ChunkChannel chunk = new ChunkChannel();
+        final BibtexWriter writer = new BibtexWriter(chunk, charset);
+        writer.setLineSeparator(lineSeparator);
+        for (int i = begin; i < end; i++)
+            writer.write(entries[i]);
+        writer.close();
+        return chunk.buffers.toArray(new ByteBuffer[chunk.buffers.size()]);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        if (channel instanceof GatheringByteChannel) {
+            final GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+            int first = 0;
+            while (first < buffers.length) {
+                gatheringChannel.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining())
+                    first++;
+            }
+        } else {
+            for (int i = 0; i < buffers.length; i++) {
+                while (buffers[i].hasRemaining())
+                    channel.write(buffers[i]);
+            }
+        }
+    }
+
+    /**
+     * Keeps copies of everything written to it.
+     */
+    private static final class ChunkChannel implements WritableByteChannel {
+
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+        public int write(ByteBuffer src) {
+            final int length = src.remaining();
+            if (length > 0) {
+                final ByteBuffer copy = ByteBuffer.allocate(length);
+                copy.put(src);
+                copy.flip();
+                buffers.add(copy);
+            }
+            return length;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
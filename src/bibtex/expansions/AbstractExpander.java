@@ -8,6 +8,11 @@ package bibtex.expansions;
 
 import java.util.LinkedList;
 
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexMacroDefinition;
+import bibtex.dom.BibtexPreamble;
+
 /**
  * @author henkel
  */
@@ -23,7 +28,7 @@ public abstract class AbstractExpander {
 
 	protected AbstractExpander(boolean throwAllExpansionExceptions) {
 		this.throwAllExpansionExceptions = throwAllExpansionExceptions;
-		this.exceptions = throwAllExpansionExceptions ? null : new LinkedList();
+		this.exceptions = throwAllExpansionExceptions ? null : new LinkedList<ExpansionException>();
 	}
 
 	private final boolean throwAllExpansionExceptions;
@@ -61,7 +66,7 @@ public abstract class AbstractExpander {
 			try {
 				throw new ExpansionException(message);
 			} catch (ExpansionException e) {
-				this.exceptions.add(e);
+				collectedExceptions().add(e);
 			}
 		}
 	}
@@ -80,13 +85,104 @@ public abstract class AbstractExpander {
 			try {
 				throw new ExpansionException(cause);
 			} catch (ExpansionException e) {
-				this.exceptions.add(e);
+				collectedExceptions().add(e);
 			}
 		}
 	}
 
-	
-	private final LinkedList exceptions;
+	/**
+	 * @return the list that takes the exceptions of the current thread - see
+	 *         beginChunk().
+	 */
+	private LinkedList<ExpansionException> collectedExceptions() {
+		LinkedList<ExpansionException> chunkExceptions = this.chunkExceptions.get();
+		return chunkExceptions != null ? chunkExceptions : this.exceptions;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of threads that expand the entries of a file. The
+	 *            default is 1, i.e. the calling thread expands all the entries.
+	 */
+	public void setParallelism(int parallelism) {
+		assert parallelism > 0 : "parallelism parameter must be positive.";
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/*
+	 * The steps of an expansion, as ExpansionPipeline calls them: first
+	 * beginExpansion(), then the expand methods for the top level entries of
+	 * the file, and endExpansion() at the end.
+	 */
+
+	void beginExpansion(BibtexFile file) {
+	}
+
+	/**
+	 * The macro definitions are expanded one after another, in file order.
+	 */
+	void expandMacroDefinition(BibtexMacroDefinition definition, int position) throws ExpansionException {
+	}
+
+	/**
+	 * This and expandEntry() may be called for different entries on
+	 * different threads.
+	 */
+	void expandPreamble(BibtexPreamble preamble, int position) throws ExpansionException {
+	}
+
+	/**
+	 * @param mayDefer
+	 *            false once all entries have been through all the expanders
+	 *            that come before this one.
+	 * @return false if the entry depends on entries that may not have been
+	 *         expanded yet - the pipeline will call this again with mayDefer
+	 *         set to false.
+	 */
+	boolean expandEntry(BibtexEntry entry, int position, boolean mayDefer) throws ExpansionException {
+		return true;
+	}
+
+	void endExpansion() {
+		finishExpansion();
+	}
+
+	/**
+	 * From now on, the exceptions of the current thread go to a list of their
+	 * own, until endChunk() - so that parallel expansions can put them in
+	 * order.
+	 */
+	void beginChunk() {
+		this.chunkExceptions.set(new LinkedList<ExpansionException>());
+	}
+
+	/**
+	 * @return the exceptions since beginChunk().
+	 */
+	LinkedList<ExpansionException> endChunk() {
+		LinkedList<ExpansionException> chunkExceptions = this.chunkExceptions.get();
+		this.chunkExceptions.remove();
+		return chunkExceptions;
+	}
+
+	void addChunkExceptions(LinkedList<ExpansionException> chunkExceptions) {
+		if (this.exceptions != null)
+			this.exceptions.addAll(chunkExceptions);
+	}
+
+	private final LinkedList<ExpansionException> exceptions;
 	private ExpansionException[] exceptionsAsArrays;
+	private int parallelism = 1;
+
+	/**
+	 * The exceptions of the chunk that the current thread is expanding, or
+	 * null.
+	 */
+	private final ThreadLocal<LinkedList<ExpansionException>> chunkExceptions =
+		new ThreadLocal<LinkedList<ExpansionException>>();
 
 }
@@ -0,0 +1,85 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.expansions;
+
+import java.io.StringReader;
+
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexString;
+import bibtex.parser.BibtexParser;
+
+/**
+ * Checks the expanders on small files that are built in memory. Run it with
+ * assertions enabled (-ea).
+ */
+class BibtexExpanderTests {
+
+    public static void main(String[] args) throws Exception {
+        testDanglingCrossref(false);
+        testDanglingCrossref(true);
+        testSharedStringsAreImmutable();
+        System.out.println("All tests passed.");
+    }
+
+    /**
+     * A crossref to a missing entry is reported, and the entry and the
+     * entries after it are left alone.
+     */
+    static void testDanglingCrossref(boolean inheritFields) throws Exception {
+        final BibtexFile bibtexFile = new BibtexFile();
+        final BibtexEntry dangling = bibtexFile.makeEntry("inproceedings", "a");
+        dangling.setField("title", bibtexFile.makeString("x"));
+        dangling.setField("crossref", bibtexFile.makeString("missing"));
+        bibtexFile.addEntry(dangling);
+        final BibtexEntry parent = bibtexFile.makeEntry("proceedings", "p");
+        parent.setField("booktitle", bibtexFile.makeString("y"));
+        bibtexFile.addEntry(parent);
+        final BibtexEntry child = bibtexFile.makeEntry("inproceedings", "c");
+        child.setField("crossref", bibtexFile.makeString("p"));
+        bibtexFile.addEntry(child);
+
+        final CrossReferenceExpander expander = new CrossReferenceExpander(false, inheritFields);
+        expander.expand(bibtexFile);
+        check(Integer.valueOf(expander.getExceptions().length), Integer.valueOf(1));
+        check(expander.getExceptions()[0].getMessage(), "Crossref key not found: \"missing\"");
+        check(dangling.getFieldValue("title").toString(), "{x}");
+        check(String.valueOf(dangling.getFieldValue("booktitle")), "null");
+        check(child.getFieldValue("booktitle").toString(), "{y}");
+    }
+
+    /**
+     * The expanded strings that entries share can't be changed, and changing
+     * the field of one entry leaves the others alone.
+     */
+    static void testSharedStringsAreImmutable() throws Exception {
+        final BibtexFile bibtexFile = new BibtexFile();
+        new BibtexParser(true).parse(bibtexFile, new StringReader("@string{icse = \"ICSE\"}\n"
+                + "@inproceedings{a, booktitle = icse # \" 2003\", month = jan}\n"
+                + "@inproceedings{b, booktitle = icse # \" 2003\", month = jan}\n"));
+        new MacroReferenceExpander(true, true, false, true).expand(bibtexFile);
+        final BibtexEntry a = bibtexFile.getEntry("a"), b = bibtexFile.getEntry("b");
+        for (String field : new String[] { "booktitle", "month" }) {
+            final BibtexString shared = (BibtexString) a.getFieldValue(field);
+            check(Boolean.valueOf(shared == b.getFieldValue(field)), Boolean.TRUE);
+            check(Boolean.valueOf(shared.isImmutable()), Boolean.TRUE);
+            try {
+                shared.setContent("changed");
+                throw new AssertionError("setContent() changed a shared string.");
+            } catch (UnsupportedOperationException e) {
+                // expected.
+            }
+        }
+        a.setField("booktitle", bibtexFile.makeString("ICSE 2003 (Portland)"));
+        check(a.getFieldValue("booktitle").toString(), "{ICSE 2003 (Portland)}");
+        check(b.getFieldValue("booktitle").toString(), "{ICSE 2003}");
+        check(b.getFieldValue("month").toString(), "{January}");
+    }
+
+    static void check(Object actual, Object expected) {
+        if (!actual.equals(expected))
+            throw new AssertionError("expected <" + expected + "> but was <" + actual + ">");
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Created on Oct 18, 2026
+ * 
+ */
+package bibtex.expansions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bibtex.dom.BibtexPersonList;
+import bibtex.dom.BibtexString;
+
+/**
+ * Remembers the person lists that BibtexPersonListParser made for the last
+ * so many field contents, so that entries with the same authors or editors
+ * (e.g. all the papers of a proceedings volume) share one immutable
+ * BibtexPersonList - see PersonListExpander.setPersonListCache(). The least
+ * recently used contents are dropped first.
+ * 
+ * A cache can be used by several expanders and threads at once.
+ */
+public final class BibtexPersonListCache {
+
+	/**
+	 * @param maxSize
+	 *            the maximum number of person lists to keep.
+	 */
+	public BibtexPersonListCache(final int maxSize) {
+		assert maxSize > 0 : "maxSize parameter must be positive.";
+
+		this.maxSize = maxSize;
+		this.content2PersonList = new LinkedHashMap<String, BibtexPersonList>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, BibtexPersonList> eldest) {
+				if (size() <= maxSize)
+					return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	private final int maxSize;
+
+	/**
+	 * Maps field contents to immutable BibtexPersonList objects.
+	 */
+	private final LinkedHashMap<String, BibtexPersonList> content2PersonList;
+
+	private long hits, misses, evictions, sharedPersons, parseNanos;
+
+	/**
+	 * Like BibtexPersonListParser.parse(), but returns the cached person list
+	 * if personList has the same content as a previous one of the same file.
+	 * The result is immutable - see BibtexPersonList.makeImmutable(). Contents
+	 * that can't be parsed aren't cached.
+	 */
+	public BibtexPersonList parse(BibtexString personList, String entryKey) throws PersonListParserException {
+		String content = personList.getContent();
+		synchronized (this) {
+			BibtexPersonList result = content2PersonList.get(content);
+			if (result != null && result.getOwnerFile() == personList.getOwnerFile()) {
+				hits++;
+				sharedPersons += result.getList().size();
+				return result;
+			}
+			misses++;
+		}
+		// we parse outside of the lock, so two threads may parse the same
+		// content - the second result wins.
+		long start = System.nanoTime();
+		BibtexPersonList result = BibtexPersonListParser.parse(personList, entryKey);
+		result.makeImmutable();
+		long nanos = System.nanoTime() - start;
+		synchronized (this) {
+			parseNanos += nanos;
+			content2PersonList.put(content, result);
+		}
+		return result;
+	}
+
+	public synchronized int size() {
+		return content2PersonList.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of parse() calls that had to parse, including the
+	 *         ones that failed with an exception.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return hits / (hits + misses), or 0 if parse() hasn't been called yet.
+	 */
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * @return the number of BibtexPerson objects that the hits didn't have to
+	 *         make.
+	 */
+	public synchronized long getSharedPersons() {
+		return sharedPersons;
+	}
+
+	/**
+	 * @return an estimate of the parse time that the hits saved: the hits
+	 *         times the average time of parsing on a miss.
+	 */
+	public synchronized long getSavedNanos() {
+		return misses == 0 ? 0 : hits * (parseNanos / misses);
+	}
+
+	public synchronized void clear() {
+		content2PersonList.clear();
+	}
+
+	/**
+	 * @return the statistics, e.g. for logging.
+	 */
+	public synchronized String toString() {
+		return "person list cache: "
+			+ size()
+			+ "/"
+			+ maxSize
+			+ " lists, "
+			+ hits
+			+ " hits, "
+			+ misses
+			+ " misses ("
+			+ Math.round(getHitRate() * 1000) / 10.0
+			+ "% hit rate), "
+			+ evictions
+			+ " evictions, "
+			+ sharedPersons
+			+ " persons shared, about "
+			+ getSavedNanos() / 1000000
+			+ "ms of parsing saved";
+	}
+}
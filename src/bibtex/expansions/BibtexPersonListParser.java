@@ -6,7 +6,7 @@
  */
 package bibtex.expansions;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 
 import bibtex.dom.*;
@@ -21,11 +21,17 @@ final class BibtexPersonListParser {
 
         private final char[] chars;
 
+        private final int end;
+
         private int pos;
 
-        StringIterator(String string) {
-            chars = string.toCharArray();
-            pos = 0;
+        /**
+         * Iterates over chars[begin] to chars[end - 1].
+         */
+        StringIterator(char[] chars, int begin, int end) {
+            this.chars = chars;
+            this.end = end;
+            pos = begin;
         }
 
         char next() {
@@ -41,38 +47,140 @@ final class BibtexPersonListParser {
         }
 
         void skipWhiteSpace() {
-            while (pos < chars.length && Character.isWhitespace(chars[pos]))
+            while (pos < end && Character.isWhitespace(chars[pos]))
                 pos++;
         }
 
         boolean hasNext() {
-            return pos + 1 < chars.length;
+            return pos + 1 < end;
+        }
+    }
+
+    private static final byte WORD = 0;
+
+    /**
+     * A word whose first letter at brace level 0 is lower case, e.g. "von".
+     */
+    private static final byte LOWER_CASE_WORD = 1;
+
+    private static final byte COMMA = 2;
+
+    private static final byte MINUS = 3;
+
+    /**
+     * The tokens of a person list: ranges of its chars, each of a kind. Every
+     * thread reuses one of these, so that parsing allocates nothing but the
+     * results.
+     */
+    private static final class Tokens {
+
+        char[] chars = new char[256];
+
+        int length;
+
+        int count;
+
+        int[] begins = new int[32];
+
+        int[] ends = new int[32];
+
+        byte[] kinds = new byte[32];
+
+        void reset(String content) {
+            length = content.length();
+            if (chars.length < length)
+                chars = new char[Math.max(length, 2 * chars.length)];
+            content.getChars(0, length, chars, 0);
+            count = 0;
+        }
+
+        void add(int begin, int end, byte kind) {
+            if (count == kinds.length) {
+                begins = Arrays.copyOf(begins, 2 * count);
+                ends = Arrays.copyOf(ends, 2 * count);
+                kinds = Arrays.copyOf(kinds, 2 * count);
+            }
+            begins[count] = begin;
+            ends[count] = end;
+            kinds[count] = kind;
+            count++;
+        }
+
+        /**
+         * Adds chars[begin] to chars[end - 1] as a word, without the leading
+         * and trailing characters up to ' ' (like String.trim()).
+         * 
+         * @return false if there was nothing left to add.
+         */
+        boolean addWord(int begin, int end) {
+            while (begin < end && chars[begin] <= ' ')
+                begin++;
+            while (end > begin && chars[end - 1] <= ' ')
+                end--;
+            if (begin == end)
+                return false;
+            add(begin, end, firstCharAtBracelevel0IsLowerCase(chars, begin, end) ? LOWER_CASE_WORD : WORD);
+            return true;
+        }
+
+        boolean isLowerCase(int token) {
+            return kinds[token] == LOWER_CASE_WORD;
+        }
+
+        boolean is(int token, String word) {
+            if (ends[token] - begins[token] != word.length())
+                return false;
+            for (int i = 0; i < word.length(); i++) {
+                if (chars[begins[token] + i] != word.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the token is "and", ignoring case.
+         */
+        boolean isAnd(int token) {
+            final int begin = begins[token];
+            return ends[token] - begin == 3 && (chars[begin] | 0x20) == 'a' && (chars[begin + 1] | 0x20) == 'n'
+                    && (chars[begin + 2] | 0x20) == 'd';
         }
     }
 
+    private static final ThreadLocal<Tokens> TOKENS = new ThreadLocal<Tokens>() {
+        protected Tokens initialValue() {
+            return new Tokens();
+        }
+    };
+
     public static BibtexPersonList parse(BibtexString personList,String entryKey) throws PersonListParserException {
 
         String content = personList.getContent();
-        String[] tokens = tokenize(content);
+        Tokens tokens = TOKENS.get();
+        tokens.reset(content);
+        tokenize(tokens);
 
         BibtexPersonList result = personList.getOwnerFile().makePersonList();
-        if (tokens.length == 0) {
+        if (tokens.count == 0) {
             return result;
         }
         int begin = 0;
-        for (int i = 0; i < tokens.length; i++) {
-            if (tokens[i].toLowerCase().equals(AND) && begin < i) {
+        for (int i = 0; i < tokens.count; i++) {
+            if (tokens.isAnd(i) && begin < i) {
                 result.add(makePerson(tokens, begin, i, content, entryKey, personList.getOwnerFile()));
                 begin = i + 1;
             }
         }
-        if (begin < tokens.length)
-            result.add(makePerson(tokens, begin, tokens.length, content, entryKey, personList.getOwnerFile()));
+        if (begin < tokens.count)
+            result.add(makePerson(tokens, begin, tokens.count, content, entryKey, personList.getOwnerFile()));
         return result;
     }
 
-    private static boolean firstCharAtBracelevel0IsLowerCase(final String string) {
-        StringIterator stringIt =new StringIterator(string);
+    /**
+     * Looks at chars[begin] to chars[end - 1], which aren't empty.
+     */
+    private static boolean firstCharAtBracelevel0IsLowerCase(char[] chars, int begin, int end) {
+        StringIterator stringIt = new StringIterator(chars, begin, end);
         if (Character.isLowerCase(stringIt.current()))
             return true;
         while (stringIt.hasNext()) {
@@ -140,54 +248,57 @@ final class BibtexPersonListParser {
         return false;
     }
 
-    private static String getString(String[] tokens, int beginIndex, int endIndex) {
+    private static String getString(Tokens tokens, int beginIndex, int endIndex) {
         if (!(beginIndex < endIndex))
             return null;
         assert beginIndex >= 0;
         assert endIndex >= 0;
-        StringBuffer result = new StringBuffer();
+        final char[] chars = tokens.chars;
+        if (endIndex - beginIndex == 1 && tokens.kinds[beginIndex] != MINUS)
+            return new String(chars, tokens.begins[beginIndex], tokens.ends[beginIndex] - tokens.begins[beginIndex]);
+        StringBuilder result = new StringBuilder();
         for (int i = beginIndex; i < endIndex; i++) {
-            if (tokens[i] == MINUS) {
+            if (tokens.kinds[i] == MINUS) {
                 if (i == beginIndex || i == endIndex - 1)
                     continue;
                 result.append('-');
                 continue;
             }
-            if (i > beginIndex && tokens[i - 1] != MINUS)
+            if (i > beginIndex && tokens.kinds[i - 1] != MINUS)
                 result.append(' ');
-            result.append(tokens[i]);
+            result.append(chars, tokens.begins[i], tokens.ends[i] - tokens.begins[i]);
         }
         return result.toString();
     }
 
-    private static BibtexPerson makePerson(String[] tokens, int begin, int end, String fullEntry, String entryKey, BibtexFile factory)
+    private static BibtexPerson makePerson(Tokens tokens, int begin, int end, String fullEntry, String entryKey, BibtexFile factory)
             throws PersonListParserException {
-        if (tokens[begin].equals("others")) {
+        if (tokens.is(begin, "others")) {
             return factory.makePerson(null, null, null, null, true);
-        } else if (tokens[end - 1] == COMMA)
+        } else if (tokens.kinds[end - 1] == COMMA)
             throw new PersonListParserException("Name ends with comma: '" + fullEntry + "' - in '"+entryKey+"'");
         else {
             int numberOfCommas = 0;
             for (int i = begin; i < end; i++) {
-                if (tokens[i] == COMMA)
+                if (tokens.kinds[i] == COMMA)
                     numberOfCommas++;
             }
             if (numberOfCommas == 0) {
                 int lastNameBegin = end - 1;
                 while (true) {
-                    if (lastNameBegin - 1 >= begin && !firstCharAtBracelevel0IsLowerCase(tokens[lastNameBegin - 1])) {
+                    if (lastNameBegin - 1 >= begin && !tokens.isLowerCase(lastNameBegin - 1)) {
                         lastNameBegin -= 1;
-                    } else if (lastNameBegin - 2 >= begin && tokens[lastNameBegin - 1] == MINUS
-                            && !firstCharAtBracelevel0IsLowerCase(tokens[lastNameBegin - 2])) {
+                    } else if (lastNameBegin - 2 >= begin && tokens.kinds[lastNameBegin - 1] == MINUS
+                            && !tokens.isLowerCase(lastNameBegin - 2)) {
                         lastNameBegin -= 2;
                     } else
                         break;
                 }
                 int firstLowerCase = -1;
                 for (int i = begin; i < end; i++) {
-                    if (tokens[i] == MINUS)
+                    if (tokens.kinds[i] == MINUS)
                         continue;
-                    if (firstCharAtBracelevel0IsLowerCase(tokens[i])) {
+                    if (tokens.isLowerCase(i)) {
                         firstLowerCase = i;
                         break;
                     }
@@ -197,8 +308,8 @@ final class BibtexPersonListParser {
                     //there is no preLast part
 
                     lastNameBegin = end - 1;
-                    while (lastNameBegin - 2 >= begin && tokens[lastNameBegin - 1] == MINUS
-                            && !firstCharAtBracelevel0IsLowerCase(tokens[lastNameBegin - 2]))
+                    while (lastNameBegin - 2 >= begin && tokens.kinds[lastNameBegin - 1] == MINUS
+                            && !tokens.isLowerCase(lastNameBegin - 2))
                         lastNameBegin -= 2;
                     last = getString(tokens, lastNameBegin, end);
                     first = getString(tokens, begin, lastNameBegin);
@@ -218,7 +329,7 @@ final class BibtexPersonListParser {
                 if (numberOfCommas == 1) {
                     int commaIndex = -1;
                     for (int i = begin; i < end; i++) {
-                        if (tokens[i] == COMMA) {
+                        if (tokens.kinds[i] == COMMA) {
                             commaIndex = i;
                             break;
                         }
@@ -226,9 +337,9 @@ final class BibtexPersonListParser {
                     final int preLastBegin = begin;
                     int preLastEnd = begin;
                     for (int i = preLastEnd; i < commaIndex; i++) {
-                        if (tokens[i] == MINUS)
+                        if (tokens.kinds[i] == MINUS)
                             continue;
-                        if (firstCharAtBracelevel0IsLowerCase(tokens[i])) {
+                        if (tokens.isLowerCase(i)) {
                             preLastEnd = i + 1;
                         }
                     }
@@ -245,7 +356,7 @@ final class BibtexPersonListParser {
                     int firstComma = -1;
                     int secondComma = -1;
                     for (int i = begin; i < end; i++) {
-                        if (tokens[i] == COMMA) {
+                        if (tokens.kinds[i] == COMMA) {
                             if (firstComma == -1) {
                                 firstComma = i;
                             } else {
@@ -257,9 +368,9 @@ final class BibtexPersonListParser {
                     final int preLastBegin = begin;
                     int preLastEnd = begin;
                     for (int i = preLastEnd; i < firstComma; i++) {
-                        if (tokens[i] == MINUS)
+                        if (tokens.kinds[i] == MINUS)
                             continue;
-                        if (firstCharAtBracelevel0IsLowerCase(tokens[i])) {
+                        if (tokens.isLowerCase(i)) {
                             preLastEnd = i + 1;
                         }
                     }
@@ -285,26 +396,20 @@ final class BibtexPersonListParser {
         }
     }
 
-    private static final String COMMA = ",".intern();
-
-    private static final String AND = "and".intern();
-
-    private static final String MINUS = "-".intern();
-
     /**
+     * Splits tokens.chars into tokens.
      * 
-     * 
-     * @param stringContent
-     * @return String[]
+     * @param tokens
      */
-    private static String[] tokenize(String stringContent) {
+    private static void tokenize(Tokens tokens) {
+        final char[] chars = tokens.chars;
+        final int length = tokens.length;
         int numberOfOpenBraces = 0;
         int tokenBegin = 0;
-        stringContent = stringContent + " ";
-        // make sure the last character is whitespace ;-)
-        LinkedList tokens = new LinkedList(); // just some strings ...
-        for (int currentPos = 0; currentPos < stringContent.length(); currentPos++) {
-            switch (stringContent.charAt(currentPos)) {
+        // as if the last character was followed by whitespace ;-)
+        for (int currentPos = 0; currentPos <= length; currentPos++) {
+            final char currentChar = currentPos < length ? chars[currentPos] : ' ';
+            switch (currentChar) {
             case '{':
                 numberOfOpenBraces++;
                 break;
@@ -312,44 +417,27 @@ final class BibtexPersonListParser {
                 if(numberOfOpenBraces>0){
                     numberOfOpenBraces--;
                 } else{
-                    if (tokenBegin <= currentPos - 1) {
-                        String potentialToken = stringContent.substring(tokenBegin, currentPos).trim();
-                        if (!potentialToken.equals("")) {
-                            tokens.add(potentialToken);
-                        }
-                    }
+                    tokens.addWord(tokenBegin, currentPos);
                     tokenBegin = currentPos + 1;
                 }
                 break;
             case ',':
                 if (numberOfOpenBraces == 0) {
-                    if (tokenBegin <= currentPos - 1) {
-                        String potentialToken = stringContent.substring(tokenBegin, currentPos).trim();
-                        if (!potentialToken.equals("")) {
-                            tokens.add(potentialToken);
-                        }
-                    }
-                    tokens.add(COMMA);
+                    tokens.addWord(tokenBegin, currentPos);
+                    tokens.add(currentPos, currentPos + 1, COMMA);
                     tokenBegin = currentPos + 1;
                 }
+                break;
             default:
-                char currentChar = stringContent.charAt(currentPos);
                 if (Character.isWhitespace(currentChar) || (currentChar == '~') || (currentChar == '-')) {
-                    if (numberOfOpenBraces == 0 && tokenBegin <= currentPos) {
-                        String potentialToken = stringContent.substring(tokenBegin, currentPos).trim();
-                        if (!potentialToken.equals("")) {
-                            tokens.add(potentialToken);
-                            if (currentChar == '-')
-                                tokens.add(MINUS);
-                        }
+                    if (numberOfOpenBraces == 0) {
+                        if (tokens.addWord(tokenBegin, currentPos) && currentChar == '-')
+                            tokens.add(currentPos, currentPos + 1, MINUS);
                         tokenBegin = currentPos + 1;
                     }
                 }
             }
         }
-        String[] result = new String[tokens.size()];
-        tokens.toArray(result);
-        return result;
     }
 
     private static boolean isEqual(String str1, String str2) {
@@ -68,7 +68,8 @@ class BibtexPersonListParserTests {
     static {
         try {
             BufferedReader in = 
-                new BufferedReader(new FileReader("/home/machine/henkel/projects/26_javabib/personparsing/RESULTS.txt"));
+                new BufferedReader(new FileReader(System.getProperty("bibtex.personParsingResults",
+                        "/home/machine/henkel/projects/26_javabib/personparsing/RESULTS.txt")));
             String line;
             ArrayList testsAsList = new ArrayList();
             int count=0;
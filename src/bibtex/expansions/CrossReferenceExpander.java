@@ -6,12 +6,9 @@
  */
 package bibtex.expansions;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
-import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexAbstractValue;
 import bibtex.dom.BibtexEntry;
 import bibtex.dom.BibtexFile;
@@ -38,9 +35,28 @@ public final class CrossReferenceExpander extends AbstractExpander implements Ex
 	 *            exceptions later
 	 */
 	public CrossReferenceExpander(boolean throwAllExpansionExceptions) {
+		this(throwAllExpansionExceptions, false);
+	}
+
+	/**
+	 * @param throwAllExpansionExceptions
+	 *            see CrossReferenceExpander(boolean)
+	 * @param inheritFields
+	 *            Setting this to true means that an entry doesn't get copies of
+	 *            the fields of the crossreferenced entry, but inherits them (see
+	 *            BibtexEntry.setInheritedFrom()) - a later change of the
+	 *            crossreferenced entry shows through. Use
+	 *            BibtexEntry.materializeInheritedFields() to get the copies.
+	 *            Nested crossreferences, which bibtex doesn't support, are
+	 *            inherited all the way, except where they would go in circles.
+	 */
+	public CrossReferenceExpander(boolean throwAllExpansionExceptions, boolean inheritFields) {
 		super(throwAllExpansionExceptions);
+		this.inheritFields = inheritFields;
 	}
 
+	private final boolean inheritFields;
+
 	/**
 	 * Note: If you don't use the MacroReferenceExpander first, this function
 	 * may lead to inconsistent macro references.
@@ -51,41 +67,61 @@ public final class CrossReferenceExpander extends AbstractExpander implements Ex
 	 * @param bibtexFile
 	 */
 	public void expand(BibtexFile bibtexFile) throws ExpansionException {
-		HashMap entryKey2Entry = new HashMap();
-		ArrayList entriesWithCrossReference = new ArrayList();
-		for (Iterator entryIt = bibtexFile.getEntries().iterator(); entryIt.hasNext();) {
-			BibtexAbstractEntry abstractEntry = (BibtexAbstractEntry) entryIt.next();
-			if (!(abstractEntry instanceof BibtexEntry))
-				continue;
-			BibtexEntry entry = (BibtexEntry) abstractEntry;
-			entryKey2Entry.put(entry.getEntryKey().toLowerCase(), abstractEntry);
-			if (entry.getFields().containsKey("crossref")) {
-				entriesWithCrossReference.add(entry);
+		ExpansionPipeline.expand(bibtexFile, new AbstractExpander[] { this }, getParallelism());
+	}
+
+	private BibtexFile bibtexFile;
+
+	void beginExpansion(BibtexFile file) {
+		this.bibtexFile = file;
+	}
+
+	/**
+	 * The entries with a crossref field wait until all entries have been
+	 * through the expanders before this one, and then get expanded in file
+	 * order.
+	 */
+	boolean expandEntry(BibtexEntry entry, int position, boolean mayDefer) throws ExpansionException {
+		if (!entry.getFields().containsKey("crossref"))
+			return true;
+		if (mayDefer)
+			return false;
+		String crossrefKey = ((BibtexString) entry.getFields().get("crossref")).getContent().toLowerCase();
+		entry.undefineField("crossref");
+		BibtexEntry crossrefEntry = bibtexFile.getEntry(crossrefKey);
+		if (crossrefEntry == null) {
+			throwExpansionException("Crossref key not found: \"" + crossrefKey + "\"");
+			return true;
+		}
+		if (crossrefEntry.getFields().containsKey("crossref"))
+			throwExpansionException(
+				"Nested crossref: \""
+					+ crossrefKey
+					+ "\" is crossreferenced but crossreferences itself \""
+					+ ((BibtexString) crossrefEntry.getFields().get("crossref")).getContent()
+					+ "\"");
+		if (inheritFields) {
+			for (BibtexEntry ancestor = crossrefEntry; ancestor != null; ancestor = ancestor.getInheritedFrom()) {
+				if (ancestor == entry)
+					return true;
 			}
+			entry.setInheritedFrom(crossrefEntry);
+			return true;
 		}
-		for (Iterator entryIt = entriesWithCrossReference.iterator(); entryIt.hasNext();) {
-			BibtexEntry entry = (BibtexEntry) entryIt.next();
-			String crossrefKey = ((BibtexString) entry.getFields().get("crossref")).getContent().toLowerCase();
-			entry.undefineField("crossref");
-			BibtexEntry crossrefEntry = (BibtexEntry) entryKey2Entry.get(crossrefKey);
-			if (crossrefEntry == null)
-				throwExpansionException("Crossref key not found: \"" + crossrefKey + "\"");
-			if (crossrefEntry.getFields().containsKey("crossref"))
-				throwExpansionException(
-					"Nested crossref: \""
-						+ crossrefKey
-						+ "\" is crossreferenced but crossreferences itself \""
-						+ ((BibtexString) crossrefEntry.getFields().get("crossref")).getContent()
-						+ "\"");
-			Map entryFields = entry.getFields();
-			Map crossrefFields = crossrefEntry.getFields();
-			for (Iterator fieldIt = crossrefFields.keySet().iterator(); fieldIt.hasNext();) {
-				String key = (String) fieldIt.next();
-				if (!entryFields.containsKey(key)) {
-					entry.setField(key, (BibtexAbstractValue) crossrefFields.get(key));
-				}
+		Map<String, Object> entryFields = entry.getFields();
+		Map<String, Object> crossrefFields = crossrefEntry.getFields();
+		for (Iterator<String> fieldIt = crossrefFields.keySet().iterator(); fieldIt.hasNext();) {
+			String key = fieldIt.next();
+			if (!entryFields.containsKey(key)) {
+				entry.setField(key, (BibtexAbstractValue) crossrefFields.get(key));
 			}
 		}
-		finishExpansion();
+		return true;
+	}
+
+	void endExpansion() {
+		this.bibtexFile = null;
+		super.endExpansion();
 	}
+
 }
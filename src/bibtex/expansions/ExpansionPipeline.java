@@ -0,0 +1,261 @@
+/*
+ * Created on Oct 18, 2026
+ * 
+ */
+package bibtex.expansions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexMacroDefinition;
+import bibtex.dom.BibtexPreamble;
+import bibtex.dom.BibtexVisitor;
+
+/**
+ * Runs several expanders in a single pass over the entries of a file, instead
+ * of one pass per expander. For example, this does what bibtex.Main does for
+ * -expandCrossReferences -expandPersonLists:
+ * 
+ * <pre>
+ * ExpansionPipeline pipeline =
+ * 	new ExpansionPipeline(new AbstractExpander[] {
+ * 		new MacroReferenceExpander(true, true, false, false),
+ * 		new CrossReferenceExpander(false),
+ * 		new PersonListExpander(true, true, false)});
+ * pipeline.expand(bibtexFile);
+ * </pre>
+ * 
+ * Each entry goes through the expanders in the given order. An entry that
+ * depends on other entries - one with a crossref field needs the entry it
+ * references to be through the expanders before the CrossReferenceExpander -
+ * waits until the pass is over, and then goes through the rest of the
+ * expanders. So it's only the entries with a crossref field that are visited
+ * twice.
+ * 
+ * The expanders keep their own exceptions: getExceptions() returns those of
+ * the first expander, then those of the second one and so on. Only the
+ * expanders of this package can be used in a pipeline.
+ */
+public final class ExpansionPipeline extends AbstractExpander implements Expander {
+
+	/**
+	 * @param expanders
+	 *            MacroReferenceExpander, CrossReferenceExpander and
+	 *            PersonListExpander objects, in the order in which they
+	 *            should expand each entry.
+	 */
+	public ExpansionPipeline(AbstractExpander[] expanders) {
+		super(false);
+		assert expanders != null && expanders.length > 0 : "expanders parameter must have at least one element.";
+		for (int i = 0; i < expanders.length; i++) {
+			assert expanders[i] instanceof MacroReferenceExpander
+				|| expanders[i] instanceof CrossReferenceExpander
+				|| expanders[i] instanceof PersonListExpander : "expanders[" + i + "] can't be used in a pipeline.";
+		}
+		this.expanders = expanders.clone();
+	}
+
+	private final AbstractExpander[] expanders;
+
+	/**
+	 * Expands the entries of bibtexFile on getParallelism() threads - the
+	 * parallelism of the expanders themselves doesn't matter here.
+	 * 
+	 * @param bibtexFile
+	 */
+	public void expand(BibtexFile bibtexFile) throws ExpansionException {
+		expand(bibtexFile, this.expanders, getParallelism());
+	}
+
+	public ExpansionException[] getExceptions() {
+		ArrayList<ExpansionException> exceptions = new ArrayList<ExpansionException>();
+		for (int i = 0; i < expanders.length; i++) {
+			if (expanders[i].getExceptions() != null)
+				exceptions.addAll(Arrays.asList(expanders[i].getExceptions()));
+		}
+		return exceptions.toArray(new ExpansionException[exceptions.size()]);
+	}
+
+	private static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * Runs the expanders over the entries of bibtexFile. With a parallelism
+	 * above 1, the macro definitions are expanded first, one after another,
+	 * and then the other entries in chunks on a fork-join pool. The result is
+	 * the same, but the exceptions of the macro definitions come first.
+	 */
+	static void expand(BibtexFile bibtexFile, final AbstractExpander[] expanders, int parallelism)
+		throws ExpansionException {
+		for (int i = 0; i < expanders.length; i++)
+			expanders[i].beginExpansion(bibtexFile);
+		// removing macro definitions doesn't disturb us.
+		final BibtexAbstractEntry[] entries = bibtexFile.getEntries().toArray(new BibtexAbstractEntry[0]);
+		// for each entry: 1 + the index of the expander that it waits for, or 0.
+		final int[] waiting = new int[entries.length];
+
+		if (parallelism == 1 || entries.length <= CHUNK_SIZE) {
+			EntryVisitor visitor = new EntryVisitor(expanders, waiting, true);
+			for (int i = 0; i < entries.length; i++) {
+				visitor.position = i;
+				entries[i].accept(visitor);
+			}
+		} else {
+			// a macro definition may use the ones before it.
+			for (int i = 0; i < entries.length; i++) {
+				if (entries[i] instanceof BibtexMacroDefinition) {
+					for (int j = 0; j < expanders.length; j++)
+						expanders[j].expandMacroDefinition((BibtexMacroDefinition) entries[i], i);
+				}
+			}
+			expandInParallel(entries, expanders, waiting, parallelism);
+		}
+
+		for (int i = 0; i < entries.length; i++) {
+			if (waiting[i] != 0)
+				expandEntry(expanders, (BibtexEntry) entries[i], i, waiting[i] - 1, waiting, false);
+		}
+		for (int i = 0; i < expanders.length; i++)
+			expanders[i].endExpansion();
+	}
+
+	/**
+	 * Sends entry through the expanders, starting at expanders[first], until
+	 * one of them wants it to wait.
+	 */
+	private static void expandEntry(
+		AbstractExpander[] expanders,
+		BibtexEntry entry,
+		int position,
+		int first,
+		int[] waiting,
+		boolean mayDefer)
+		throws ExpansionException {
+		waiting[position] = 0;
+		for (int i = first; i < expanders.length; i++) {
+			if (!expanders[i].expandEntry(entry, position, mayDefer)) {
+				waiting[position] = i + 1;
+				return;
+			}
+		}
+	}
+
+	private static final class EntryVisitor extends BibtexVisitor<ExpansionException> {
+
+		private final AbstractExpander[] expanders;
+		private final int[] waiting;
+		private final boolean expandMacroDefinitions;
+
+		/**
+		 * The position of the entry that is visited next.
+		 */
+		int position;
+
+		EntryVisitor(AbstractExpander[] expanders, int[] waiting, boolean expandMacroDefinitions) {
+			this.expanders = expanders;
+			this.waiting = waiting;
+			this.expandMacroDefinitions = expandMacroDefinitions;
+		}
+
+		public void visit(BibtexMacroDefinition macroDefinition) throws ExpansionException {
+			if (expandMacroDefinitions) {
+				for (int i = 0; i < expanders.length; i++)
+					expanders[i].expandMacroDefinition(macroDefinition, position);
+			}
+		}
+
+		public void visit(BibtexPreamble preamble) throws ExpansionException {
+			for (int i = 0; i < expanders.length; i++)
+				expanders[i].expandPreamble(preamble, position);
+		}
+
+		public void visit(BibtexEntry entry) throws ExpansionException {
+			expandEntry(expanders, entry, position, 0, waiting, true);
+		}
+	}
+
+	/**
+	 * The result of expanding one chunk of entries.
+	 */
+	private static final class Chunk {
+		/**
+		 * The exceptions for each expander.
+		 */
+		List<LinkedList<ExpansionException>> exceptions;
+
+		/**
+		 * The exception that ended the chunk, or null.
+		 */
+		ExpansionException failure;
+	}
+
+	/**
+	 * Expands everything but the macro definitions. The exceptions end up in
+	 * the order of the entries, as if the entries were expanded one after
+	 * another. If an expander throws, the exception of the first chunk that
+	 * failed is thrown once all threads are done - so entries after the
+	 * failing one may have been expanded.
+	 */
+	private static void expandInParallel(
+		final BibtexAbstractEntry[] entries,
+		final AbstractExpander[] expanders,
+		final int[] waiting,
+		int parallelism)
+		throws ExpansionException {
+		List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>();
+		for (int begin = 0; begin < entries.length; begin += CHUNK_SIZE) {
+			final int from = begin;
+			final int to = Math.min(begin + CHUNK_SIZE, entries.length);
+			tasks.add(new Callable<Chunk>() {
+				public Chunk call() {
+					Chunk chunk = new Chunk();
+					for (int i = 0; i < expanders.length; i++)
+						expanders[i].beginChunk();
+					EntryVisitor visitor = new EntryVisitor(expanders, waiting, false);
+					try {
+						for (int i = from; i < to; i++) {
+							visitor.position = i;
+							entries[i].accept(visitor);
+						}
+					} catch (ExpansionException e) {
+						chunk.failure = e;
+					} finally {
+						chunk.exceptions = new ArrayList<LinkedList<ExpansionException>>(expanders.length);
+						for (int i = 0; i < expanders.length; i++)
+							chunk.exceptions.add(expanders[i].endChunk());
+					}
+					return chunk;
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			List<Future<Chunk>> futures = pool.invokeAll(tasks);
+			for (int i = 0; i < futures.size(); i++) {
+				Chunk chunk = futures.get(i).get();
+				for (int j = 0; j < expanders.length; j++)
+					expanders[j].addChunkExceptions(chunk.exceptions.get(j));
+				if (chunk.failure != null)
+					throw chunk.failure;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ExpansionException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw (Error) e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -6,11 +6,13 @@
  */
 package bibtex.expansions;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexAbstractValue;
 import bibtex.dom.BibtexConcatenatedValue;
 import bibtex.dom.BibtexEntry;
@@ -20,7 +22,6 @@ import bibtex.dom.BibtexMacroReference;
 import bibtex.dom.BibtexPreamble;
 import bibtex.dom.BibtexStandardMacros;
 import bibtex.dom.BibtexString;
-import bibtex.dom.BibtexToplevelComment;
 
 /**
  * This expander expands macro references into strings - have a look at the
@@ -86,51 +87,122 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 	 * If you use the flag throwAllExpansionExceptions set to false, you can
 	 * retrieve all the exceptions using getExceptions()
 	 * 
+	 * Fields that use the same macros share the expanded strings: a macro
+	 * reference becomes the value of the macro definition, and concatenations
+	 * or standard macros with the same contents become the same BibtexString.
+	 * 
+	 * With a parallelism above 1, the macro definitions are expanded first,
+	 * and then the other entries on getParallelism() threads. The result is
+	 * the same, but the exceptions of the macro definitions come first.
+	 * 
 	 * @param bibtexFile
 	 */
 	public void expand(BibtexFile bibtexFile) throws ExpansionException {
-		HashMap stringKey2StringValue = new HashMap();
-		for (Iterator entryIt = bibtexFile.getEntries().iterator(); entryIt.hasNext();) {
-			BibtexAbstractEntry abstractEntry = (BibtexAbstractEntry) entryIt.next();
-			if (abstractEntry instanceof BibtexMacroDefinition) {
-				BibtexMacroDefinition bibtexStringDefinition = (BibtexMacroDefinition) abstractEntry;
-				BibtexAbstractValue simplifiedValue =
-					simplify(bibtexFile, bibtexStringDefinition.getValue(), stringKey2StringValue);
-				bibtexStringDefinition.setValue(simplifiedValue);
-				if (removeMacros) {
-					bibtexFile.removeEntry(bibtexStringDefinition);
-				};
-				stringKey2StringValue.put(bibtexStringDefinition.getKey().toLowerCase(), simplifiedValue);
-
-			} else if (abstractEntry instanceof BibtexPreamble) {
-				BibtexPreamble preamble = (BibtexPreamble) abstractEntry;
-				preamble.setContent(simplify(bibtexFile, preamble.getContent(), stringKey2StringValue));
-			} else if (abstractEntry instanceof BibtexEntry) {
-				BibtexEntry entry = (BibtexEntry) abstractEntry;
-				for (Iterator fieldIt = entry.getFields().entrySet().iterator(); fieldIt.hasNext();) {
-					Map.Entry field = (Map.Entry) fieldIt.next();
-					if (!(field.getValue() instanceof BibtexString)) {
-						entry.setField(
-							(String) field.getKey(),
-							simplify(bibtexFile, (BibtexAbstractValue) field.getValue(), stringKey2StringValue));
-					}
-				}
-			} else if (abstractEntry instanceof BibtexToplevelComment) {
-				// don't do anything here ...
-			} else {
-				throwExpansionException(
-					"MacroReferenceExpander.expand(): I don't support \""
-						+ abstractEntry.getClass().getName()
-						+ "\". Use the force, read the source!");
+		ExpansionPipeline.expand(bibtexFile, new AbstractExpander[] { this }, getParallelism());
+	}
+
+	/**
+	 * The file that is being expanded, and its macro definitions so far.
+	 */
+	private BibtexFile bibtexFile;
+	private MacroTable macros;
+
+	/*
+	 * Hash-consing: the expanded standard macros by key, and the joined
+	 * strings by Shape. A file that uses the same macros in many entries
+	 * (e.g. booktitle = icse # " 2003") then has one expanded string for each
+	 * of them, shared by the entries - just like the values of the macro
+	 * definitions themselves. These maps are only kept during expand(). The
+	 * shared strings are immutable (see BibtexString.makeImmutable()), so that
+	 * a change of one entry's field can't change the fields of the others.
+	 */
+	private ConcurrentHashMap<String, BibtexString> standardMacroStrings;
+	private ConcurrentHashMap<Shape, BibtexString> joinedStrings;
+
+	void beginExpansion(BibtexFile file) {
+		this.bibtexFile = file;
+		this.macros = new MacroTable();
+		this.standardMacroStrings = new ConcurrentHashMap<String, BibtexString>();
+		this.joinedStrings = new ConcurrentHashMap<Shape, BibtexString>();
+	}
+
+	void expandMacroDefinition(BibtexMacroDefinition bibtexStringDefinition, int position)
+		throws ExpansionException {
+		BibtexAbstractValue simplifiedValue =
+			simplify(bibtexFile, bibtexStringDefinition.getValue(), macros, position);
+		bibtexStringDefinition.setValue(simplifiedValue);
+		if (removeMacros) {
+			bibtexFile.removeEntry(bibtexStringDefinition);
+		};
+		macros.put(bibtexStringDefinition.getKey().toLowerCase(), position, simplifiedValue);
+	}
+
+	void expandPreamble(BibtexPreamble preamble, int position) throws ExpansionException {
+		preamble.setContent(simplify(bibtexFile, preamble.getContent(), macros, position));
+	}
+
+	boolean expandEntry(BibtexEntry entry, int position, boolean mayDefer) throws ExpansionException {
+		for (Iterator<Map.Entry<String, Object>> fieldIt = entry.getFields().entrySet().iterator(); fieldIt.hasNext();) {
+			Map.Entry<String, Object> field = fieldIt.next();
+			if (!(field.getValue() instanceof BibtexString)) {
+				entry.setField(
+					field.getKey(),
+					simplify(bibtexFile, (BibtexAbstractValue) field.getValue(), macros, position));
 			}
 		}
-		finishExpansion();
+		return true;
+	}
+
+	void endExpansion() {
+		this.bibtexFile = null;
+		this.macros = null;
+		this.standardMacroStrings = null;
+		this.joinedStrings = null;
+		super.endExpansion();
+	}
+
+	/**
+	 * The simplified values of the macro definitions by lower case key. A key
+	 * may be defined more than once, and an entry sees the last definition
+	 * before it - so we keep all of them, each with its position in the file.
+	 * This is read concurrently once all definitions are in.
+	 */
+	private static final class MacroTable {
+		private static final class Definition {
+			final int position;
+			final BibtexAbstractValue value;
+			final Definition previous;
+
+			Definition(int position, BibtexAbstractValue value, Definition previous) {
+				this.position = position;
+				this.value = value;
+				this.previous = previous;
+			}
+		}
+
+		private final HashMap<String, Definition> key2Definition = new HashMap<String, Definition>();
+
+		void put(String key, int position, BibtexAbstractValue value) {
+			key2Definition.put(key, new Definition(position, value, key2Definition.get(key)));
+		}
+
+		/**
+		 * @return the value of the last definition of key before position, or
+		 *         null.
+		 */
+		BibtexAbstractValue get(String key, int position) {
+			Definition definition = key2Definition.get(key);
+			while (definition != null && definition.position >= position)
+				definition = definition.previous;
+			return definition == null ? null : definition.value;
+		}
 	}
 
 	private BibtexAbstractValue simplify(
 		BibtexFile factory,
 		BibtexAbstractValue compositeValue,
-		HashMap stringKey2StringValue)
+		MacroTable macros,
+		int position)
 		throws ExpansionException {
 		if (compositeValue instanceof BibtexString)
 			return (BibtexString) compositeValue;
@@ -138,7 +210,7 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 			BibtexMacroReference reference = (BibtexMacroReference) compositeValue;
 			String key = reference.getKey();
 
-			BibtexString simplifiedValue = (BibtexString) stringKey2StringValue.get(key);
+			BibtexString simplifiedValue = (BibtexString) macros.get(key, position);
 			if (simplifiedValue == null) {
 
 				if (!this.expandMonthAbbreviations && BibtexStandardMacros.isMonthAbbreviation(key))
@@ -147,7 +219,15 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 					return reference;
 
 				if (BibtexStandardMacros.isStandardMacro(key)) {
-					return factory.makeString(BibtexStandardMacros.resolveStandardMacro(key));
+					BibtexString expanded = standardMacroStrings.get(key);
+					if (expanded == null) {
+						expanded = factory.makeString(BibtexStandardMacros.resolveStandardMacro(key));
+						expanded.makeImmutable();
+						BibtexString previous = standardMacroStrings.putIfAbsent(key, expanded);
+						if (previous != null)
+							expanded = previous;
+					}
+					return expanded;
 				} else {
 					throwExpansionException(
 						"Invalid macro reference (target does not exist): \"" + reference.getKey() + "\"");
@@ -159,13 +239,24 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 		}
 		if (compositeValue instanceof BibtexConcatenatedValue) {
 			BibtexConcatenatedValue concatenatedValue = (BibtexConcatenatedValue) compositeValue;
-			BibtexAbstractValue left = simplify(factory, concatenatedValue.getLeft(), stringKey2StringValue);
-			BibtexAbstractValue right = simplify(factory, concatenatedValue.getRight(), stringKey2StringValue);
-			if (left instanceof BibtexString && right instanceof BibtexString)
-				return factory.makeString(
-					((BibtexString) left).getContent() + ((BibtexString) right).getContent());
-			else
-				return factory.makeConcatenatedValue(left, right);
+			ArrayList<BibtexAbstractValue> simplifiedValues = new ArrayList<BibtexAbstractValue>();
+			// adjacent strings are joined in a single pass: run holds the
+			// strings since the last value that isn't one.
+			ArrayList<BibtexString> run = new ArrayList<BibtexString>();
+			for (int i = 0; i < concatenatedValue.getValueCount(); i++) {
+				BibtexAbstractValue value = simplify(factory, concatenatedValue.getValue(i), macros, position);
+				if (value instanceof BibtexConcatenatedValue) {
+					BibtexConcatenatedValue nested = (BibtexConcatenatedValue) value;
+					for (int j = 0; j < nested.getValueCount(); j++)
+						addSimplifiedValue(factory, nested.getValue(j), simplifiedValues, run);
+				} else
+					addSimplifiedValue(factory, value, simplifiedValues, run);
+			}
+			joinRun(factory, simplifiedValues, run);
+			if (simplifiedValues.size() == 1)
+				return simplifiedValues.get(0);
+			return factory.makeConcatenatedValue(simplifiedValues
+				.toArray(new BibtexAbstractValue[simplifiedValues.size()]));
 		}
 		throwExpansionException(
 			"MacroReferenceExpander.simplify(): I don't support \""
@@ -175,7 +266,70 @@ public final class MacroReferenceExpander extends AbstractExpander implements Ex
 		// use the empty string
 	}
 
-	
+	private void addSimplifiedValue(
+		BibtexFile factory,
+		BibtexAbstractValue value,
+		ArrayList<BibtexAbstractValue> simplifiedValues,
+		ArrayList<BibtexString> run) {
+		if (value instanceof BibtexString)
+			run.add((BibtexString) value);
+		else {
+			joinRun(factory, simplifiedValues, run);
+			simplifiedValues.add(value);
+		}
+	}
+
+	/**
+	 * Adds the strings in run as a single string, and clears run. Runs with
+	 * the same contents get the same string.
+	 */
+	private void joinRun(
+		BibtexFile factory,
+		ArrayList<BibtexAbstractValue> simplifiedValues,
+		ArrayList<BibtexString> run) {
+		if (run.size() == 1)
+			simplifiedValues.add(run.get(0));
+		else if (run.size() > 1) {
+			String[] contents = new String[run.size()];
+			for (int i = 0; i < contents.length; i++)
+				contents[i] = run.get(i).getContent();
+			Shape shape = new Shape(contents);
+			BibtexString joined = joinedStrings.get(shape);
+			if (joined == null) {
+				StringBuilder content = new StringBuilder();
+				for (int i = 0; i < contents.length; i++)
+					content.append(contents[i]);
+				joined = factory.makeString(content);
+				joined.makeImmutable();
+				BibtexString previous = joinedStrings.putIfAbsent(shape, joined);
+				if (previous != null)
+					joined = previous;
+			}
+			simplifiedValues.add(joined);
+		}
+		run.clear();
+	}
+
+	/**
+	 * The contents of a run of strings, as a key for joinedStrings. Most of
+	 * the contents come from the symbol table, so comparing them is cheap.
+	 */
+	private static final class Shape {
+		private final String[] contents;
+		private final int hashCode;
 
+		Shape(String[] contents) {
+			this.contents = contents;
+			this.hashCode = Arrays.hashCode(contents);
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof Shape && Arrays.equals(contents, ((Shape) other).contents);
+		}
+	}
 
 }
@@ -6,10 +6,10 @@
  */
 package bibtex.expansions;
 
-import java.util.Iterator;
-
+import bibtex.dom.BibtexAbstractValue;
 import bibtex.dom.BibtexEntry;
 import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexPersonList;
 import bibtex.dom.BibtexString;
 
 /**
@@ -51,6 +51,22 @@ public class PersonListExpander extends AbstractExpander implements Expander {
 
 	private boolean expandAuthors, expandEditors;
 
+	private BibtexPersonListCache personListCache;
+
+	/**
+	 * @param personListCache
+	 *            if not null, the fields with the same content share an
+	 *            immutable BibtexPersonList from this cache. The default is
+	 *            null, i.e. each field gets a person list of its own.
+	 */
+	public void setPersonListCache(BibtexPersonListCache personListCache) {
+		this.personListCache = personListCache;
+	}
+
+	public BibtexPersonListCache getPersonListCache() {
+		return personListCache;
+	}
+
 	/**
 	 * This method will expand all author and editor fields (if configured in
 	 * the constructor) into BibtexPersonList values. Before you call this
@@ -59,34 +75,45 @@ public class PersonListExpander extends AbstractExpander implements Expander {
 	 * If you use the flag throwAllExpansionExceptions set to false, you can
 	 * retrieve all the exceptions using getExceptions()
 	 * 
+	 * The entries are expanded on getParallelism() threads.
+	 * 
 	 * @param file
 	 */
 	public void expand(BibtexFile file) throws ExpansionException {
-		for (Iterator entryIt = file.getEntries().iterator(); entryIt.hasNext();) {
-			Object next = entryIt.next();
-			if (!(next instanceof BibtexEntry))
-				continue;
-			BibtexEntry entry = (BibtexEntry) next;
-			if (expandAuthors && entry.getFieldValue("author") != null) {
-				try {
-					entry.setField(
-						"author",
-						BibtexPersonListParser.parse((BibtexString) entry.getFieldValue("author"),""+entry.getEntryKey()));
-				} catch (PersonListParserException e) {
-					throwExpansionException(e);
-				}
+		ExpansionPipeline.expand(file, new AbstractExpander[] { this }, getParallelism());
+	}
+
+	/**
+	 * Fields that hold a BibtexPersonList already (e.g. one that a crossref
+	 * copied from an expanded entry) are left alone, and so are inherited
+	 * fields - they get expanded in the entry that they belong to.
+	 */
+	boolean expandEntry(BibtexEntry entry, int position, boolean mayDefer) throws ExpansionException {
+		if (expandAuthors && isUnexpanded(entry.getOwnFieldValue("author"))) {
+			try {
+				entry.setField("author", parse((BibtexString) entry.getOwnFieldValue("author"), ""+entry.getEntryKey()));
+			} catch (PersonListParserException e) {
+				throwExpansionException(e);
 			}
-			if (expandEditors && entry.getFieldValue("editor") != null) {
-				try {
-					entry.setField(
-						"editor",
-						BibtexPersonListParser.parse((BibtexString) entry.getFieldValue("editor"),""+entry.getEntryKey()));
-				} catch (PersonListParserException e) {
-					throwExpansionException(e);
-				}
+		}
+		if (expandEditors && isUnexpanded(entry.getOwnFieldValue("editor"))) {
+			try {
+				entry.setField("editor", parse((BibtexString) entry.getOwnFieldValue("editor"), ""+entry.getEntryKey()));
+			} catch (PersonListParserException e) {
+				throwExpansionException(e);
 			}
 		}
-		finishExpansion();
+		return true;
+	}
+
+	private BibtexPersonList parse(BibtexString personList, String entryKey) throws PersonListParserException {
+		if (personListCache == null)
+			return BibtexPersonListParser.parse(personList, entryKey);
+		return personListCache.parse(personList, entryKey);
+	}
+
+	private static boolean isUnexpanded(BibtexAbstractValue value) {
+		return value != null && !(value instanceof BibtexPersonList);
 	}
 
 }
@@ -0,0 +1,82 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexFile;
+
+/**
+ * A cursor over the top level entries of a bibtex input, for files that are
+ * too large to be held in a BibtexFile. For example, this prints the keys of
+ * all entries in a DBLP export:
+ * 
+ * <pre>
+ * BibtexFile factory = new BibtexFile();
+ * BibtexEntryReader reader = new BibtexParser(false).openEntryReader(factory, path, charset);
+ * try {
+ *     BibtexAbstractEntry entry;
+ *     while ((entry = reader.read()) != null) {
+ *         if (entry instanceof BibtexEntry)
+ *             System.out.println(((BibtexEntry) entry).getEntryKey());
+ *     }
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ * 
+ * The entries are created by the factory passed to the parser, but they are
+ * never added to it.
+ * 
+ * @see BibtexParser#openEntryReader(BibtexFile, java.io.Reader)
+ */
+public final class BibtexEntryReader implements Closeable {
+
+    private final BibtexParser parser;
+
+    private final Closeable input;
+
+    private final ArrayList<BibtexAbstractEntry> pending = new ArrayList<BibtexAbstractEntry>(1);
+
+    BibtexEntryReader(BibtexParser parser, BibtexFile factory, PseudoLexer lexer, Closeable input) {
+        this.parser = parser;
+        this.input = input;
+        parser.setParsedEntries(pending);
+        parser.begin(factory, lexer);
+    }
+
+    /**
+     * Parses the next top level entry (this includes comments, macro
+     * definitions and preambles).
+     * 
+     * @return the entry or null if the end of the input has been reached.
+     * @throws ParseException
+     *             only if the parser was configured to throw all parse
+     *             exceptions. Otherwise, check getExceptions().
+     * @throws IOException
+     */
+    public BibtexAbstractEntry read() throws ParseException, IOException {
+        while (pending.isEmpty()) {
+            if (!parser.parseNext())
+                return null;
+        }
+        return pending.remove(0);
+    }
+
+    /**
+     * @return the non-fatal exceptions that occurred so far.
+     * @see BibtexParser#getExceptions()
+     */
+    public ParseException[] getExceptions() {
+        return parser.getExceptions();
+    }
+
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+
+/**
+ * Random access to the entries of a large bibtex file by their keys. The index
+ * maps the lowercased entry keys to the byte ranges of the entries. It is
+ * stored next to the file (foo.bib.idx for foo.bib), so it only needs to be
+ * built once - it's rebuilt automatically when the size, the modification time
+ * or the content hash of the file don't match anymore. Looking up an entry
+ * reads and parses just that entry:
+ *
+ * <pre>
+ * BibtexIndex index = new BibtexParser(false).openIndex(path, StandardCharsets.UTF_8);
+ * try {
+ *     BibtexEntry entry = index.lookup(bibtexFile, &quot;knuth84&quot;);
+ * } finally {
+ *     index.close();
+ * }
+ * </pre>
+ *
+ * If there are several entries with the same key, the index points to the
+ * first one. Macros and crossrefs are not expanded, since their definitions
+ * are elsewhere in the file.
+ *
+ * @see BibtexParser#openIndex(Path, Charset)
+ */
+public final class BibtexIndex implements Closeable {
+
+    private static final int MAGIC = 0x42494458; // "BIDX"
+
+    private static final int VERSION = 1;
+
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Where an entry is in the file.
+     */
+    private static final class Location {
+        long offset;
+
+        int length;
+
+        /**
+         * the position just before the first byte, as expected by
+         * LookAheadReader.
+         */
+        int line, column;
+    }
+
+    private final BibtexParser parser;
+
+    private final FileChannel channel;
+
+    private final Charset charset;
+
+    private final HashMap<String, Location> locations;
+
+    private BibtexIndex(BibtexParser parser, FileChannel channel, Charset charset, HashMap<String, Location> locations) {
+        this.parser = parser;
+        this.channel = channel;
+        this.charset = charset;
+        this.locations = locations;
+    }
+
+    /**
+     * @return the path of the index file for the bibtex file at path.
+     */
+    public static Path getIndexPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".idx");
+    }
+
+    static BibtexIndex open(BibtexParser parser, Path path, Charset charset) throws ParseException, IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            final long lastModified = Files.getLastModifiedTime(path).toMillis();
+            final Path indexPath = getIndexPath(path);
+            HashMap<String, Location> locations = null;
+            if (Files.isRegularFile(indexPath))
+                locations = read(indexPath, channel, charset, size, lastModified);
+            if (locations == null) {
+                locations = build(parser, path, charset);
+                write(indexPath, locations, charset, size, lastModified, contentHash(channel));
+            }
+            BibtexIndex index = new BibtexIndex(parser, channel, charset, locations);
+            channel = null;
+            return index;
+        } finally {
+            if (channel != null)
+                channel.close();
+        }
+    }
+
+    /**
+     * @param factory
+     *            is used to create the entry, but the entry is not added to
+     *            it.
+     * @param key
+     *            the key of the entry, in any case.
+     * @return the entry with the given key, or null if there is none. Just
+     *         like in a BibtexFile, this may be what's left of a broken entry
+     *         after error recovery.
+     * @throws ParseException
+     *             if the parser throws all parse exceptions and the entry is
+     *             broken, or if there is no entry at the indexed position,
+     *             which means that the file has been changed since the index
+     *             was opened.
+     * @throws IOException
+     */
+    public BibtexEntry lookup(BibtexFile factory, String key) throws ParseException, IOException {
+
+        assert factory != null : "factory parameter may not be null.";
+        assert key != null : "key parameter may not be null.";
+
+        final Location location = locations.get(key.toLowerCase());
+        if (location == null)
+            return null;
+        final ByteBuffer bytes = ByteBuffer.allocate(location.length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, location.offset + bytes.position()) < 0)
+                break;
+        }
+        bytes.flip();
+
+        final BibtexParser entryParser = parser.newSequentialParser();
+        final List<BibtexAbstractEntry> entries = new ArrayList<BibtexAbstractEntry>(1);
+        entryParser.setParsedEntries(entries);
+        entryParser.begin(factory, new PseudoLexer(bytes, charset, location.line, location.column));
+        while (entries.isEmpty() && entryParser.parseNext())
+            ;
+        if (entries.isEmpty() || !(entries.get(0) instanceof BibtexEntry))
+            throw new ParseException(location.line, location.column, "there is no entry '" + key
+                    + "' at the indexed position, the file has changed.");
+        return (BibtexEntry) entries.get(0);
+    }
+
+    /**
+     * @return the lowercased keys of all entries in the index.
+     */
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(locations.keySet());
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Parses the whole file and records where the entries are.
+     */
+    private static HashMap<String, Location> build(BibtexParser parser, Path path, Charset charset)
+            throws ParseException, IOException {
+        final HashMap<String, Location> locations = new HashMap<String, Location>();
+        // the lexer closes the channel at EOF.
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            build(parser, channel, charset, locations);
+        } finally {
+            channel.close();
+        }
+        return locations;
+    }
+
+    private static void build(BibtexParser parser, FileChannel channel, Charset charset,
+            HashMap<String, Location> locations) throws ParseException, IOException {
+        final BibtexParser indexParser = parser.newSequentialParser();
+        final List<BibtexAbstractEntry> entries = new ArrayList<BibtexAbstractEntry>(1);
+        final PseudoLexer lexer = new PseudoLexer(channel, charset, 0, 1, 0);
+        indexParser.setParsedEntries(entries);
+        indexParser.begin(new BibtexFile(), lexer);
+        while (true) {
+            long offset = lexer.getBytePosition();
+            final int line = lexer.getLine();
+            int column = lexer.getColumn();
+            if (!indexParser.isAtEntryBoundary()) {
+                // error recovery has consumed the '@' already, which is a
+                // single byte in the charsets we support, and is never the
+                // end of a line.
+                offset--;
+                column--;
+            }
+            if (!indexParser.parseNext())
+                break;
+            if (entries.isEmpty())
+                continue;
+            final BibtexAbstractEntry entry = entries.remove(0);
+            if (!(entry instanceof BibtexEntry))
+                continue;
+            final String key = ((BibtexEntry) entry).getEntryKey().toLowerCase();
+            final long length = lexer.getBytePosition() - offset;
+            if (locations.containsKey(key) || length > Integer.MAX_VALUE)
+                continue;
+            final Location location = new Location();
+            location.offset = offset;
+            location.length = (int) length;
+            // the position just before the first character.
+            location.line = column == 0 ? line - 1 : line;
+            location.column = column == 0 ? 0 : column - 1;
+            locations.put(key, location);
+        }
+    }
+
+    /**
+     * @return the locations, or null if the index file is outdated.
+     */
+    private static HashMap<String, Location> read(Path indexPath, FileChannel channel, Charset charset, long size,
+            long lastModified) throws IOException {
+        final HashMap<String, Location> locations;
+        final byte[] hash;
+        final boolean touched;
+        InputStream stream = Files.newInputStream(indexPath);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(charset.name())
+                    || in.readLong() != size)
+                return null;
+            final long indexedLastModified = in.readLong();
+            hash = new byte[in.readInt()];
+            in.readFully(hash);
+            // a different modification time alone doesn't mean that the
+            // content has changed (e.g. after a checkout), so we compare
+            // the hashes before throwing the index away.
+            touched = indexedLastModified != lastModified;
+            if (touched && !Arrays.equals(hash, contentHash(channel)))
+                return null;
+            final int count = in.readInt();
+            locations = new HashMap<String, Location>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                final Location location = new Location();
+                location.offset = in.readLong();
+                location.length = in.readInt();
+                location.line = in.readInt();
+                location.column = in.readInt();
+                locations.put(key, location);
+            }
+        } catch (IOException e) {
+            // truncated or otherwise broken, we'll just build it again.
+            return null;
+        } finally {
+            stream.close();
+        }
+        // with the new modification time, the next open doesn't need to hash
+        // the file again.
+        if (touched)
+            write(indexPath, locations, charset, size, lastModified, hash);
+        return locations;
+    }
+
+    /**
+     * Writes the index to a temporary file first, so that readers never see
+     * half an index. If the index can't be written (e.g. because the directory
+     * is read-only), we just don't have an index file.
+     */
+    private static void write(Path indexPath, HashMap<String, Location> locations, Charset charset, long size,
+            long lastModified, byte[] hash) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(indexPath.toAbsolutePath().getParent(), indexPath.getFileName()
+                    .toString(), ".tmp");
+            OutputStream stream = Files.newOutputStream(temporary);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(charset.name());
+                out.writeLong(size);
+                out.writeLong(lastModified);
+                out.writeInt(hash.length);
+                out.write(hash);
+                out.writeInt(locations.size());
+                for (Map.Entry<String, Location> entry : locations.entrySet()) {
+                    final Location location = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(location.offset);
+                    out.writeInt(location.length);
+                    out.writeInt(location.line);
+                    out.writeInt(location.column);
+                }
+                out.flush();
+            } finally {
+                stream.close();
+            }
+            Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                if (temporary != null)
+                    Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the SHA-256 hash of the whole channel.
+     */
+    static byte[] contentHash(FileChannel channel) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("every Java platform has SHA-256", e);
+        }
+        final long size = channel.size();
+        for (long position = 0; position < size; position += WINDOW_SIZE)
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position)));
+        return digest.digest();
+    }
+}
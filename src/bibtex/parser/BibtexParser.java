@@ -8,11 +8,21 @@ package bibtex.parser;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexAbstractValue;
 import bibtex.dom.BibtexEntry;
 import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexSource;
 
 /**
  * The parser will parse the bibtex into a basic AST. Have a look at the
@@ -38,12 +48,68 @@ public final class BibtexParser {
 
     private BibtexFile bibtexFile;
 
-    private LinkedList exceptions;
+    private LinkedList<ParseException> exceptions;
 
     private boolean throwAllParseExceptions;
 
     private int multipleFieldValuesPolicy = BibtexMultipleFieldValuesPolicy.KEEP_FIRST;
 
+    private int parallelism = 1;
+
+    /**
+     * the pool for parallel parsing, or null for the one that all parsers
+     * share.
+     */
+    private ForkJoinPool pool;
+
+    private boolean resynchronizeAfterErrors = false;
+
+    private int maxErrors = Integer.MAX_VALUE;
+
+    private boolean keepSourceSpans = false;
+
+    /**
+     * the file we are parsing, if we keep the source spans of the entries.
+     */
+    private BibtexSource source;
+
+    /**
+     * the offset in source at which the lexer's input begins.
+     */
+    private long sourceOffset;
+
+    /**
+     * the last entry that we added, and the last one that got a source span.
+     */
+    private BibtexAbstractEntry lastEntry, lastSpannedEntry;
+
+    /**
+     * the position in the lexer's input at which the last source span ended.
+     */
+    private long spanEnd;
+
+    /**
+     * true if error recovery has already consumed the '@' of the next entry.
+     */
+    private boolean pendingAt;
+
+    /**
+     * if this is not null, the top level entries go here instead of into
+     * bibtexFile.
+     */
+    private List<BibtexAbstractEntry> parsedEntries;
+
+    /**
+     * we reuse this buffer for everything we scan, so we only allocate the
+     * Strings that end up in the model.
+     */
+    private final StringBuilder scratch = new StringBuilder();
+
+    /**
+     * the values of the concatenation that parseValue() is parsing.
+     */
+    private final ArrayList<BibtexAbstractValue> valueParts = new ArrayList<BibtexAbstractValue>();
+
     /**
      * Returns the list of non-fatal exceptions that occured during parsing.
      * Usually, these occur while parsing an entry. Usually, the remainder of
@@ -76,33 +142,370 @@ public final class BibtexParser {
         assert bibtexFile != null : "bibtexFile parameter may not be null.";
         assert input != null : "input parameter may not be null.";
 
-        this.lexer = new PseudoLexer(input);
+        parse(bibtexFile, new PseudoLexer(input));
+    }
+
+    /**
+     * Equivalent to parse(bibtexFile, path, StandardCharsets.UTF_8) - see
+     * there for what parallel parsing requires of bibtexFile.
+     * 
+     * @param bibtexFile
+     * @param path
+     * @throws ParseException
+     * @throws IOException
+     */
+    public void parse(BibtexFile bibtexFile, Path path) throws ParseException, IOException {
+        parse(bibtexFile, path, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the file at path into bibtexFile. The file is memory mapped and
+     * decoded with the given charset directly into the lexer's buffer, which
+     * is considerably faster on large files than going through a FileReader
+     * (and doesn't depend on the platform's default encoding either).
+     * 
+     * With a parallelism greater than one (see setParallelism()), several
+     * threads use bibtexFile as their node factory at the same time: they call
+     * its make...() methods, getSymbolTable() and the methods of the
+     * BibtexSymbolTable and the BibtexStringArena, and they set the fields of
+     * the new entries, which don't belong to the file yet. All of these are
+     * thread safe. addEntry() and everything else that changes bibtexFile is
+     * only called from the calling thread, once all chunks are parsed.
+     * 
+     * @param bibtexFile
+     * @param path
+     * @param charset
+     *            the encoding of the file, usually UTF-8 or ISO-8859-1.
+     * @throws ParseException
+     * @throws IOException
+     */
+    public void parse(BibtexFile bibtexFile, Path path, Charset charset) throws ParseException, IOException {
+
+        assert bibtexFile != null : "bibtexFile parameter may not be null.";
+        assert path != null : "path parameter may not be null.";
+        assert charset != null : "charset parameter may not be null.";
+
+        if (keepSourceSpans && LookAheadReader.canTrackBytePositions(charset))
+            setSource(new BibtexSource(path, charset), 0);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ParallelParser.Chunk[] chunks = null;
+            if (parallelism > 1 && ParallelParser.canSplit(charset))
+                chunks = ParallelParser.parse(this, bibtexFile, channel, charset, parallelism,
+                        pool != null ? pool : ParallelParser.sharedPool());
+            if (chunks == null)
+                parse(bibtexFile, new PseudoLexer(channel, charset));
+            else
+                addChunks(bibtexFile, chunks);
+        } finally {
+            setSource(null, 0);
+            channel.close();
+        }
+    }
+
+    /**
+     * Adds the entries of the chunks in their original order - if a chunk
+     * failed with an exception, we add what was parsed up to the point of
+     * failure and throw the exception, just like the sequential parser would.
+     */
+    private void addChunks(BibtexFile bibtexFile, ParallelParser.Chunk[] chunks) throws ParseException, IOException {
+        this.bibtexFile = bibtexFile;
+        this.exceptions = new LinkedList<ParseException>();
+        for (int i = 0; i < chunks.length; i++) {
+            for (BibtexAbstractEntry entry : chunks[i].entries)
+                bibtexFile.addEntry(entry);
+            exceptions.addAll(chunks[i].exceptions);
+            if (exceptions.size() > maxErrors)
+                throw tooManyErrors(exceptions.get(maxErrors));
+            if (chunks[i].failure instanceof ParseException)
+                throw (ParseException) chunks[i].failure;
+            if (chunks[i].failure instanceof IOException)
+                throw (IOException) chunks[i].failure;
+        }
+    }
+
+    /**
+     * Parses one chunk of a larger input. The top level entries are returned
+     * instead of being added to bibtexFile, which only serves as the factory.
+     * 
+     * @see ParallelParser
+     */
+    List<BibtexAbstractEntry> parseChunk(BibtexFile bibtexFile, PseudoLexer lexer) throws ParseException,
+            IOException {
+        List<BibtexAbstractEntry> chunkEntries = new ArrayList<BibtexAbstractEntry>();
+        setParsedEntries(chunkEntries);
+        parse(bibtexFile, lexer);
+        return chunkEntries;
+    }
+
+    /**
+     * @return a parser with the same configuration as this one, except that
+     *         it's sequential.
+     */
+    BibtexParser newSequentialParser() {
+        BibtexParser sequentialParser = new BibtexParser(throwAllParseExceptions);
+        sequentialParser.multipleFieldValuesPolicy = multipleFieldValuesPolicy;
+        sequentialParser.resynchronizeAfterErrors = resynchronizeAfterErrors;
+        sequentialParser.maxErrors = maxErrors;
+        return sequentialParser;
+    }
+
+    /**
+     * Makes the parser remember the source span of each top level entry
+     * (see BibtexAbstractEntry.getSourceSpan()) when it parses a file with
+     * parse(BibtexFile, Path, Charset) in UTF-8 or a single byte charset.
+     * BibtexWriter then copies the entries that haven't changed byte by byte,
+     * so that rewriting a file only changes the entries that have been
+     * changed. The default is false.
+     *
+     * @param keepSourceSpans
+     */
+    public void setKeepSourceSpans(boolean keepSourceSpans) {
+        this.keepSourceSpans = keepSourceSpans;
+    }
+
+    BibtexSource getSource() {
+        return source;
+    }
+
+    /**
+     * @param source
+     *            the file to which the source spans refer, or null if we
+     *            don't keep them.
+     * @param sourceOffset
+     *            the offset in source at which the lexer's input begins.
+     */
+    void setSource(BibtexSource source, long sourceOffset) {
+        this.source = source;
+        this.sourceOffset = sourceOffset;
+    }
+
+    /**
+     * Opens input for reading it entry by entry - the parser doesn't keep
+     * references to the entries it returns, so you can process arbitrarily
+     * large files in constant memory as long as you don't keep them either.
+     * 
+     * @param factory
+     *            is used to create the entries, but the entries are not
+     *            added to it.
+     * @param input
+     * @return the reader
+     * @throws IOException
+     */
+    public BibtexEntryReader openEntryReader(BibtexFile factory, Reader input) throws IOException {
+
+        assert factory != null : "factory parameter may not be null.";
+        assert input != null : "input parameter may not be null.";
+
+        return new BibtexEntryReader(newSequentialParser(), factory, new PseudoLexer(input), input);
+    }
+
+    /**
+     * Like openEntryReader(BibtexFile, Reader), but for a memory mapped file.
+     * 
+     * @param factory
+     * @param path
+     * @param charset
+     * @return the reader
+     * @throws IOException
+     * @see #parse(BibtexFile, Path, Charset)
+     */
+    public BibtexEntryReader openEntryReader(BibtexFile factory, Path path, Charset charset) throws IOException {
+
+        assert factory != null : "factory parameter may not be null.";
+        assert path != null : "path parameter may not be null.";
+        assert charset != null : "charset parameter may not be null.";
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new BibtexEntryReader(newSequentialParser(), factory, new PseudoLexer(channel, charset), channel);
+    }
+
+    /**
+     * Parses the file at path into bibtexFile, like parse(BibtexFile, Path,
+     * Charset), and returns an IncrementalParser that updates bibtexFile after
+     * the file has been edited. The file is always parsed sequentially.
+     *
+     * @param bibtexFile
+     * @param path
+     * @param charset
+     *            UTF-8 or a single byte charset such as ISO-8859-1.
+     * @return the incremental parser
+     * @throws ParseException
+     * @throws IOException
+     * @see IncrementalParser
+     */
+    public IncrementalParser parseIncrementally(BibtexFile bibtexFile, Path path, Charset charset)
+            throws ParseException, IOException {
+
+        assert bibtexFile != null : "bibtexFile parameter may not be null.";
+        assert path != null : "path parameter may not be null.";
+        assert charset != null : "charset parameter may not be null.";
+        assert LookAheadReader.canTrackBytePositions(charset) : "charset parameter must be UTF-8 or a single byte charset.";
+
+        IncrementalParser incrementalParser = new IncrementalParser(newSequentialParser(), bibtexFile, path, charset);
+        incrementalParser.reparse();
+        return incrementalParser;
+    }
+
+    /**
+     * Opens the index of the file at path for looking up entries by their
+     * keys. If there is no up to date index file next to it, the file is
+     * parsed and the index file is written.
+     *
+     * @param path
+     * @param charset
+     *            UTF-8 or a single byte charset such as ISO-8859-1.
+     * @return the index
+     * @throws ParseException
+     * @throws IOException
+     * @see BibtexIndex
+     */
+    public BibtexIndex openIndex(Path path, Charset charset) throws ParseException, IOException {
+
+        assert path != null : "path parameter may not be null.";
+        assert charset != null : "charset parameter may not be null.";
+        assert LookAheadReader.canTrackBytePositions(charset) : "charset parameter must be UTF-8 or a single byte charset.";
+
+        return BibtexIndex.open(newSequentialParser(), path, charset);
+    }
+
+    private void parse(BibtexFile bibtexFile, PseudoLexer lexer) throws ParseException, IOException {
+        begin(bibtexFile, lexer);
+        while (parseNext())
+            ;
+    }
+
+    void begin(BibtexFile bibtexFile, PseudoLexer lexer) {
+        this.lexer = lexer;
         this.bibtexFile = bibtexFile;
-        this.exceptions = new LinkedList();
-        while (true) {
-            PseudoLexer.Token token = lexer.scanTopLevelCommentOrAtOrEOF();
-            switch (token.choice) {
-            case 0: // top level comment
-                bibtexFile.addEntry(bibtexFile.makeToplevelComment(token.content));
-                break;
-            case 1: // @ sign
-                if (throwAllParseExceptions)
+        this.exceptions = new LinkedList<ParseException>();
+        this.pendingAt = false;
+        this.lastEntry = this.lastSpannedEntry = null;
+        this.spanEnd = 0;
+        lexer.setStacklessExceptions(!throwAllParseExceptions);
+    }
+
+    /**
+     * Parses the next top level comment or entry, if there is one.
+     * 
+     * @return false on EOF.
+     */
+    boolean parseNext() throws ParseException, IOException {
+        scratch.setLength(0);
+        final boolean keepSpan = source != null;
+        long bodyBegin = 0;
+        if (keepSpan) {
+            if (pendingAt) {
+                // error recovery has consumed the '@' already, which is a
+                // single byte in all the charsets we keep spans for.
+                bodyBegin = lexer.getBytePosition() - 1;
+            } else {
+                lexer.skipWhitespace();
+                bodyBegin = lexer.getBytePosition();
+            }
+            lastEntry = null;
+        }
+        final int next;
+        if (pendingAt) {
+            pendingAt = false;
+            next = 1;
+        } else
+            next = lexer.scanTopLevelCommentOrAtOrEOF(scratch);
+        switch (next) {
+        case 0: // top level comment
+            addEntry(bibtexFile.makeToplevelComment(scratch.toString()));
+            if (keepSpan)
+                keepSourceSpan(bodyBegin);
+            return true;
+        case 1: // @ sign
+            if (throwAllParseExceptions) {
+                parseEntry();
+                if (keepSpan)
+                    keepSourceSpan(bodyBegin);
+            } else {
+                try {
                     parseEntry();
-                else {
-                    try {
-                        parseEntry();
-                    } catch (ParseException parseException) {
-                        exceptions.add(parseException);
-                    }
+                    if (keepSpan)
+                        keepSourceSpan(bodyBegin);
+                } catch (ParseException parseException) {
+                    // an entry that was added before the error gets what has
+                    // been consumed so far, anything else goes to the next
+                    // span.
+                    if (keepSpan)
+                        keepSourceSpan(bodyBegin);
+                    exceptions.add(parseException);
+                    if (exceptions.size() > maxErrors)
+                        throw tooManyErrors(parseException);
+                    if (resynchronizeAfterErrors)
+                        pendingAt = lexer.skipToNextEntry();
                 }
-                break;
-            case 2: // EOF
-                return;
             }
+            return true;
+        default: // EOF
+            if (keepSpan && lastSpannedEntry != null) {
+                // the whitespace at the end belongs to the last entry.
+                final BibtexSource.Span span = lastSpannedEntry.getSourceSpan();
+                lastSpannedEntry.setSourceSpan(span.withLength(span.getLength()
+                        + (int) (lexer.getBytePosition() - spanEnd)));
+            }
+            return false;
         }
     }
 
-    private final static char[] EXCEPTION_SET_NAMES = new char[] { '"', '#', '%', '\'', '(', ')', ',', '=', '{', '}' };
+    /**
+     * Gives the entry that has just been parsed its source span, which begins
+     * where the previous one ended - so the spans cover everything up to the
+     * current position, including the input that error recovery skipped.
+     */
+    private void keepSourceSpan(long bodyBegin) {
+        if (lastEntry == null)
+            return;
+        final long end = lexer.getBytePosition();
+        lastEntry.setSourceSpan(source.span(sourceOffset + spanEnd, (int) (bodyBegin - spanEnd),
+                (int) (end - bodyBegin), (int) (end - spanEnd)));
+        lastSpannedEntry = lastEntry;
+        spanEnd = end;
+    }
+
+    private ParseException tooManyErrors(ParseException last) {
+        return new ParseException(last.getLine(), last.getColumn(), "more than " + maxErrors
+                + " parse errors, giving up.");
+    }
+
+    int getExceptionCount() {
+        return exceptions.size();
+    }
+
+    ParseException getLastException() {
+        return exceptions.getLast();
+    }
+
+    /**
+     * @return true if error recovery has already consumed the '@' of the next
+     *         entry, so that the lexer is not at an entry boundary.
+     */
+    boolean isAtEntryBoundary() {
+        return !pendingAt;
+    }
+
+    /**
+     * Makes the parser put the top level entries into the given list instead
+     * of adding them to the BibtexFile.
+     */
+    void setParsedEntries(List<BibtexAbstractEntry> parsedEntries) {
+        this.parsedEntries = parsedEntries;
+    }
+
+    private void addEntry(BibtexAbstractEntry entry) {
+        lastEntry = entry;
+        if (parsedEntries != null)
+            parsedEntries.add(entry);
+        else
+            bibtexFile.addEntry(entry);
+    }
+
+    private final static TerminationSet EXCEPTION_SET_NAMES = new TerminationSet(new char[] { '"', '#', '%', '\'',
+            '(', ')', ',', '=', '{', '}' });
 
     private final static String[] ENTRY_TYPES = new String[] { "string", "preamble", "article", "book", "booklet",
             "conference", "inbook", "incollection", "inproceedings", "manual", "mastersthesis", "misc", "phdthesis",
@@ -114,26 +517,51 @@ public final class BibtexParser {
     // used.
     };
 
+    private final static TerminationSet LBRACE_OR_LPAREN = new TerminationSet(new char[] { '{', '(' });
+
+    private final static TerminationSet COMMA = new TerminationSet(new char[] { ',' });
+
+    /**
+     * @return the lower case entry type - one of the ENTRY_TYPES constants
+     *         if possible, or else the symbol table's version, so that we
+     *         don't have to allocate a new String.
+     */
+    private String toEntryType(StringBuilder name) {
+        search: for (int i = 0; i < ENTRY_TYPES.length; i++) {
+            final String entryType = ENTRY_TYPES[i];
+            if (entryType.length() != name.length())
+                continue;
+            for (int j = 0; j < entryType.length(); j++) {
+                if (entryType.charAt(j) != Character.toLowerCase(name.charAt(j)))
+                    continue search;
+            }
+            return entryType;
+        }
+        return bibtexFile.getSymbolTable().name(name);
+    }
+
     /**
      *  
      */
     private void parseEntry() throws ParseException, IOException {
-        String entryType = lexer.scanEntryTypeName().toLowerCase();
-        final int bracketChoice = lexer.scanAlternatives(new char[] { '{', '(' }, false);
+        scratch.setLength(0);
+        lexer.scanEntryTypeName(scratch);
+        String entryType = toEntryType(scratch);
+        final int bracketChoice = lexer.scanAlternatives(LBRACE_OR_LPAREN, false);
 
         if (entryType.equals("string")) {
             String stringName = lexer.scanLiteral(EXCEPTION_SET_NAMES, true, true);
             lexer.scan('=');
             BibtexAbstractValue value = parseValue();
-            bibtexFile.addEntry(bibtexFile.makeMacroDefinition(stringName, value));
+            addEntry(bibtexFile.makeMacroDefinition(stringName, value));
         } else if (entryType.equals("preamble")) {
             BibtexAbstractValue value = parseValue();
-            bibtexFile.addEntry(bibtexFile.makePreamble(value));
+            addEntry(bibtexFile.makePreamble(value));
         } else { // all others
             lexer.skipWhitespace();
-            String bibkey = (lexer.currentInputChar() == ',') ? "" : lexer.scanLiteral(new char[] { ',' }, true, true);
+            String bibkey = (lexer.currentInputChar() == ',') ? "" : lexer.scanLiteral(COMMA, true, true);
             final BibtexEntry entry = bibtexFile.makeEntry(entryType, bibkey);
-            bibtexFile.addEntry(entry);
+            addEntry(entry);
             while (true) {
                 lexer.enforceNoEof("',' or corresponding closing bracket", true);
                 //System.out.println("---------->'"+lexer.currentInputChar()+"'");
@@ -142,12 +570,16 @@ public final class BibtexParser {
                     lexer.enforceNoEof("'}' or [FIELDNAME]", true);
                     if (lexer.currentInputChar() == '}')
                         break;
-                    String fieldName = lexer.scanLiteral(EXCEPTION_SET_NAMES, true, true);
+                    scratch.setLength(0);
+                    lexer.scanLiteral(EXCEPTION_SET_NAMES, true, true, scratch);
+                    // not name(), since KEEP_FIRST looks up the field name as
+                    // written - setField() lowercases it anyway.
+                    String fieldName = bibtexFile.getSymbolTable().value(scratch);
                     lexer.scan('=');
                     BibtexAbstractValue value = parseValue();
                     switch (this.multipleFieldValuesPolicy) {
                     case BibtexMultipleFieldValuesPolicy.KEEP_FIRST:
-                        if (entry.getFieldValue(fieldName) == null)
+                        if (entry.getOwnFieldValue(fieldName) == null)
                             entry.setField(fieldName, value);
                         break;
                     case BibtexMultipleFieldValuesPolicy.KEEP_LAST:
@@ -170,7 +602,7 @@ public final class BibtexParser {
             lexer.scan(')');
     }
 
-    private static boolean isNumber(String string) {
+    private static boolean isNumber(CharSequence string) {
         for (int i = 0; i < string.length(); i++) {
             char c = string.charAt(i);
             if (c < '0' || '9' < c)
@@ -183,6 +615,28 @@ public final class BibtexParser {
      *  
      */
     private BibtexAbstractValue parseValue() throws ParseException, IOException {
+        final BibtexAbstractValue first = parseSimpleValue();
+        lexer.enforceNoEof("'#' or something else", true);
+        if (lexer.currentInputChar() != '#')
+            return first;
+        // a # b # c becomes a single node, without recursion.
+        valueParts.add(first);
+        try {
+            do {
+                lexer.scan('#');
+                valueParts.add(parseSimpleValue());
+                lexer.enforceNoEof("'#' or something else", true);
+            } while (lexer.currentInputChar() == '#');
+            return bibtexFile.makeConcatenatedValue(valueParts.toArray(new BibtexAbstractValue[valueParts.size()]));
+        } finally {
+            valueParts.clear();
+        }
+    }
+
+    /**
+     * @return a string, a number or a macro reference.
+     */
+    private BibtexAbstractValue parseSimpleValue() throws ParseException, IOException {
         lexer.enforceNoEof("[STRING] or [STRINGREFERENCE] or [NUMBER]", true);
         char inputCharacter = lexer.currentInputChar();
         BibtexAbstractValue result;
@@ -192,37 +646,42 @@ public final class BibtexParser {
         } else if (inputCharacter == '{') {
             result = parseBracketedString();
         } else {
-            String stringContent = lexer.scanLiteral(EXCEPTION_SET_NAMES, false, true).trim();
-            if (isNumber(stringContent))
-                result = bibtexFile.makeString(stringContent);
+            scratch.setLength(0);
+            lexer.scanLiteral(EXCEPTION_SET_NAMES, false, true, scratch);
+            // trim the literal in place, so that the symbol table can look
+            // it up without materializing it.
+            int end = scratch.length();
+            while (end > 0 && scratch.charAt(end - 1) <= ' ')
+                end--;
+            scratch.setLength(end);
+            int begin = 0;
+            while (begin < end && scratch.charAt(begin) <= ' ')
+                begin++;
+            scratch.delete(0, begin);
+            if (isNumber(scratch))
+                result = bibtexFile.makeString(scratch);
             else
-                result = bibtexFile.makeMacroReference(stringContent);
+                result = bibtexFile.makeMacroReference(scratch);
         }
-
-        lexer.enforceNoEof("'#' or something else", true);
-        if (lexer.currentInputChar() == '#') {
-            lexer.scan('#');
-            return bibtexFile.makeConcatenatedValue(result, parseValue());
-        } else {
-            return result;
-        }
-
+        return result;
     }
 
     /**
      * @return BibtexAbstractValue
      */
     private BibtexAbstractValue parseBracketedString() throws ParseException, IOException {
-        StringBuffer buffer = new StringBuffer();
-        lexer.scanBracketedString(buffer, false);
-        return bibtexFile.makeString(buffer.toString());
+        scratch.setLength(0);
+        lexer.scanBracketedString(scratch, false);
+        return bibtexFile.makeString(scratch);
     }
 
     /**
      * @return BibtexAbstractValue
      */
     private BibtexAbstractValue parseQuotedString() throws IOException, ParseException {
-        return bibtexFile.makeString(lexer.scanQuotedString());
+        scratch.setLength(0);
+        lexer.scanQuotedString(scratch);
+        return bibtexFile.makeString(scratch);
     }
 
     /**
@@ -243,4 +702,73 @@ public final class BibtexParser {
 
         this.multipleFieldValuesPolicy = multipleFieldValuesPolicy;
     }
+
+    /**
+     * Setting this to a value greater than one makes parse(BibtexFile, Path,
+     * Charset) split large files into chunks at '@' signs that start a line
+     * outside of any braces, parse the chunks on a fork-join pool with that
+     * many threads and then add the entries to the BibtexFile in their
+     * original order. Line numbers in ParseExceptions refer to the whole file.
+     * The chunks are parsed on the pool set with setForkJoinPool(), or else on
+     * a pool with one thread per processor that all parsers share, so the
+     * parallelism decides how the file is split but not how many threads there
+     * are.
+     * 
+     * For well-formed files the result is the same as with the sequential
+     * parser. For broken entries, the error recovery may differ slightly,
+     * since a chunk boundary always starts a new entry. Splitting requires an
+     * ASCII compatible charset (e.g. UTF-8 or ISO-8859-1) - for other
+     * charsets, the file is parsed sequentially. The default is 1.
+     * 
+     * @param parallelism
+     *            the number of threads to use.
+     */
+    public void setParallelism(int parallelism) {
+
+        assert parallelism > 0 : "parallelism parameter must be positive.";
+
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param pool
+     *            the pool on which parse(BibtexFile, Path, Charset) parses the
+     *            chunks of a file if the parallelism is greater than one (see
+     *            setParallelism()), or null (the default) for a pool with one
+     *            thread per processor that all parsers share. The parser
+     *            doesn't shut the pool down.
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * By default, the parser treats the remainder of a broken entry as a top
+     * level comment, so everything after the error is parsed again. Setting
+     * this to true makes the parser skip straight to the next '@' that is the
+     * first character of a line instead - this is much faster on files with
+     * many broken entries, and the garbage doesn't end up in the BibtexFile.
+     * Either way, the errors can be retrieved with getExceptions(). This has
+     * no effect if the parser throws all ParseExceptions.
+     * 
+     * @param resynchronizeAfterErrors
+     */
+    public void setResynchronizeAfterErrors(boolean resynchronizeAfterErrors) {
+        this.resynchronizeAfterErrors = resynchronizeAfterErrors;
+    }
+
+    /**
+     * If more than maxErrors ParseExceptions occur, the parser gives up and
+     * throws a ParseException. The entries parsed so far are kept, and so are
+     * the exceptions, which you can get from getExceptions(). The default is
+     * no limit.
+     * 
+     * @param maxErrors
+     */
+    public void setMaxErrors(int maxErrors) {
+
+        assert maxErrors >= 0 : "maxErrors parameter must not be negative.";
+
+        this.maxErrors = maxErrors;
+    }
 }
\ No newline at end of file
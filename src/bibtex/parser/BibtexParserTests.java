@@ -0,0 +1,163 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+
+/**
+ * Checks the parsers that only look at a part of the file against a full
+ * parse of the same bytes, and that BibtexIndex keeps its index file up to
+ * date. Run it with assertions enabled (-ea).
+ */
+class BibtexParserTests {
+
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    /**
+     * error recovery swallows the '@' of b.
+     */
+    private static final String BROKEN = "@article{a, title={x}\n@article{b, title={y}}\n@article{c, title={z}}\n";
+
+    public static void main(String[] args) throws Exception {
+        testIncrementalUpdateAfterBrokenEntry();
+        testIndexAfterBrokenEntry();
+        testIndexAfterTouch();
+        testMovedExceptionKeepsStackTrace();
+        System.out.println("All tests passed.");
+    }
+
+    /**
+     * An edit of the entry after a broken one must not turn it into a top
+     * level comment.
+     */
+    static void testIncrementalUpdateAfterBrokenEntry() throws Exception {
+        final Path path = Files.createTempFile("incremental", ".bib");
+        try {
+            write(path, BROKEN);
+            final BibtexFile bibtexFile = new BibtexFile();
+            final IncrementalParser incrementalParser = newParser().parseIncrementally(bibtexFile, path, CHARSET);
+            final String edited = BROKEN.replace("{y}", "{yy}");
+            write(path, edited);
+            incrementalParser.update(BROKEN.indexOf("{y}") + 1, 1, 2);
+            check(describe(bibtexFile), describe(parse(path)));
+            check(describe(bibtexFile), "E:a E:b E:c ");
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * The entry after a broken one must be in the index.
+     */
+    static void testIndexAfterBrokenEntry() throws Exception {
+        final Path path = Files.createTempFile("index", ".bib");
+        try {
+            write(path, BROKEN);
+            final BibtexFile bibtexFile = parse(path);
+            final BibtexIndex index = newParser().openIndex(path, CHARSET);
+            try {
+                check(new TreeSet<String>(index.getKeys()).toString(), "[a, b, c]");
+                for (Iterator<BibtexEntry> it = bibtexFile.getBibtexEntries().iterator(); it.hasNext();) {
+                    final BibtexEntry entry = it.next();
+                    check(index.lookup(new BibtexFile(), entry.getEntryKey()).toString(), entry.toString());
+                }
+            } finally {
+                index.close();
+            }
+        } finally {
+            Files.deleteIfExists(BibtexIndex.getIndexPath(path));
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * If only the modification time has changed, the index file gets the new
+     * one.
+     */
+    static void testIndexAfterTouch() throws Exception {
+        final Path path = Files.createTempFile("index", ".bib");
+        try {
+            write(path, BROKEN);
+            newParser().openIndex(path, CHARSET).close();
+            final FileTime touched = FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 60000);
+            Files.setLastModifiedTime(path, touched);
+            newParser().openIndex(path, CHARSET).close();
+            final DataInputStream in = new DataInputStream(Files.newInputStream(BibtexIndex.getIndexPath(path)));
+            try {
+                in.readInt(); // magic
+                in.readInt(); // version
+                in.readUTF(); // charset
+                in.readLong(); // size
+                check(Long.valueOf(in.readLong()), Long.valueOf(touched.toMillis()));
+            } finally {
+                in.close();
+            }
+        } finally {
+            Files.deleteIfExists(BibtexIndex.getIndexPath(path));
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * A moved exception has the stack trace of the original, or none if the
+     * original has none.
+     */
+    static void testMovedExceptionKeepsStackTrace() {
+        final ParseException withStackTrace = new ParseException(1, 2, "x", "y", true);
+        final ParseException moved = withStackTrace.moveTo(3, 4);
+        check(moved.getMessage(), "3:4: encountered 'x', expected 'y'.");
+        check(Arrays.asList(moved.getStackTrace()), Arrays.asList(withStackTrace.getStackTrace()));
+        check(Boolean.valueOf(moved.getStackTrace().length > 0), Boolean.TRUE);
+        check(Integer.valueOf(new ParseException(1, 2, "x", "y", false).moveTo(3, 4).getStackTrace().length),
+                Integer.valueOf(0));
+    }
+
+    static BibtexParser newParser() {
+        final BibtexParser parser = new BibtexParser(false);
+        parser.setResynchronizeAfterErrors(true);
+        return parser;
+    }
+
+    static BibtexFile parse(Path path) throws ParseException, IOException {
+        final BibtexFile bibtexFile = new BibtexFile();
+        newParser().parse(bibtexFile, path, CHARSET);
+        return bibtexFile;
+    }
+
+    static void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(CHARSET));
+    }
+
+    static String describe(BibtexFile bibtexFile) {
+        final StringBuilder result = new StringBuilder();
+        for (Iterator<BibtexAbstractEntry> it = bibtexFile.getEntries().iterator(); it.hasNext();) {
+            final BibtexAbstractEntry entry = it.next();
+            if (entry instanceof BibtexEntry)
+                result.append("E:").append(((BibtexEntry) entry).getEntryKey());
+            else
+                result.append(entry.getClass().getSimpleName()).append(":\"").append(entry).append('"');
+            result.append(' ');
+        }
+        return result.toString();
+    }
+
+    static void check(Object actual, Object expected) {
+        if (!actual.equals(expected))
+            throw new AssertionError("expected <" + expected + "> but was <" + actual + ">");
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexFile;
+
+/**
+ * Keeps a BibtexFile in sync with a file that is being edited. The parser
+ * remembers the byte range of each top level entry, so after an edit only the
+ * entries that overlap the changed range are parsed again - parsing stops as
+ * soon as it reaches the beginning of an entry that is known from the
+ * previous parse. The entries that were parsed again are then replaced in the
+ * BibtexFile; all others stay the same objects.
+ *
+ * <pre>
+ * BibtexFile bibtexFile = new BibtexFile();
+ * IncrementalParser parser = new BibtexParser(false).parseIncrementally(bibtexFile, path, charset);
+ * ...
+ * // the editor replaced oldLength bytes at offset with newLength bytes and saved the file.
+ * parser.update(offset, oldLength, newLength);
+ * </pre>
+ *
+ * The entries that belong to this parser must not be added or removed by
+ * anyone else, but the BibtexFile may contain other entries before them.
+ * Byte ranges are computed from the decoded characters, so the file must be
+ * well-formed in its charset.
+ *
+ * @see BibtexParser#parseIncrementally(BibtexFile, Path, Charset)
+ */
+public final class IncrementalParser {
+
+    /**
+     * The input consumed by one call of BibtexParser.parseNext(). The
+     * segments cover the file without gaps, except for whitespace at its end.
+     */
+    private static final class Segment {
+        long offset;
+
+        /**
+         * the line and column of the first character.
+         */
+        int line, column;
+
+        /**
+         * false if the previous entry was broken and error recovery has
+         * consumed the '@' already.
+         */
+        boolean atEntryBoundary;
+
+        BibtexAbstractEntry entry;
+
+        ParseException exception;
+    }
+
+    private final BibtexParser parser;
+
+    private final BibtexFile bibtexFile;
+
+    private final int firstEntryIndex;
+
+    private final Path path;
+
+    private final Charset charset;
+
+    private final ArrayList<Segment> segments = new ArrayList<Segment>();
+
+    private long length;
+
+    /**
+     * false if the last update failed, so we don't know what's in the file.
+     */
+    private boolean valid;
+
+    IncrementalParser(BibtexParser parser, BibtexFile bibtexFile, Path path, Charset charset) {
+        this.parser = parser;
+        this.bibtexFile = bibtexFile;
+        this.firstEntryIndex = bibtexFile.getEntries().size();
+        this.path = path;
+        this.charset = charset;
+        this.length = 0;
+        this.valid = false;
+    }
+
+    /**
+     * Call this after oldLength bytes starting at offset have been replaced
+     * by newLength bytes. If the size of the file doesn't match, or if the
+     * previous update failed, the whole file is parsed again.
+     *
+     * @param offset
+     * @param oldLength
+     * @param newLength
+     * @throws ParseException
+     *             if the parser throws all parse exceptions or gives up. The
+     *             BibtexFile stays as it was, and the next update parses the
+     *             whole file.
+     * @throws IOException
+     */
+    public void update(long offset, long oldLength, long newLength) throws ParseException, IOException {
+
+        assert offset >= 0 : "offset parameter may not be negative.";
+        assert oldLength >= 0 : "oldLength parameter may not be negative.";
+        assert newLength >= 0 : "newLength parameter may not be negative.";
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (!valid || offset + oldLength > length || length - oldLength + newLength != size) {
+                offset = 0;
+                oldLength = length;
+                newLength = size;
+            }
+            valid = false;
+            reparse(channel, offset, oldLength, newLength);
+            length = size;
+            valid = true;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Parses the whole file again.
+     *
+     * @throws ParseException
+     * @throws IOException
+     */
+    public void reparse() throws ParseException, IOException {
+        valid = false;
+        update(0, 0, 0);
+    }
+
+    /**
+     * @return the non-fatal exceptions of the current state of the file, in
+     *         the order in which they occur.
+     * @see BibtexParser#getExceptions()
+     */
+    public ParseException[] getExceptions() {
+        ArrayList<ParseException> result = new ArrayList<ParseException>();
+        for (Segment segment : segments) {
+            if (segment.exception != null)
+                result.add(segment.exception);
+        }
+        return result.toArray(new ParseException[result.size()]);
+    }
+
+    private void reparse(FileChannel channel, long offset, long oldLength, long newLength) throws ParseException,
+            IOException {
+        // the segment that contains the character before the edit is the
+        // first one that may change.
+        int first = 0;
+        int entryIndex = firstEntryIndex;
+        while (first + 1 < segments.size() && segments.get(first + 1).offset < offset) {
+            if (segments.get(first).entry != null)
+                entryIndex++;
+            first++;
+        }
+        // a fresh parser can't start where error recovery has consumed the
+        // '@' already, so it starts with the broken entry before.
+        while (first > 0 && !segments.get(first).atEntryBoundary) {
+            first--;
+            if (segments.get(first).entry != null)
+                entryIndex--;
+        }
+
+        final PseudoLexer lexer;
+        final long start;
+        if (first == 0) {
+            start = 0;
+            lexer = new PseudoLexer(channel, charset);
+        } else {
+            Segment firstSegment = segments.get(first);
+            start = firstSegment.offset;
+            // the position just before the first character.
+            if (firstSegment.column == 0)
+                lexer = new PseudoLexer(channel, charset, start, firstSegment.line - 1, 0);
+            else
+                lexer = new PseudoLexer(channel, charset, start, firstSegment.line, firstSegment.column - 1);
+        }
+
+        final BibtexParser sequentialParser = parser.newSequentialParser();
+        final List<BibtexAbstractEntry> newEntries = new ArrayList<BibtexAbstractEntry>();
+        final ArrayList<Segment> newSegments = new ArrayList<Segment>();
+        sequentialParser.setParsedEntries(newEntries);
+        sequentialParser.begin(bibtexFile, lexer);
+
+        final long editEnd = offset + newLength, delta = newLength - oldLength;
+        int resume = segments.size(), candidate = first + 1;
+        Segment next = new Segment();
+        while (true) {
+            next.offset = start + lexer.getBytePosition();
+            next.line = lexer.getLine();
+            next.column = lexer.getColumn();
+            next.atEntryBoundary = sequentialParser.isAtEntryBoundary();
+            if (next.offset >= editEnd) {
+                final long oldOffset = next.offset - delta;
+                while (candidate < segments.size() && segments.get(candidate).offset < oldOffset)
+                    candidate++;
+                if (candidate < segments.size() && segments.get(candidate).offset == oldOffset
+                        && segments.get(candidate).atEntryBoundary == next.atEntryBoundary) {
+                    resume = candidate;
+                    break;
+                }
+            }
+
+            final int entryCount = newEntries.size(), exceptionCount = sequentialParser.getExceptionCount();
+            if (!sequentialParser.parseNext())
+                break;
+            if (newEntries.size() > entryCount)
+                next.entry = newEntries.get(entryCount);
+            if (sequentialParser.getExceptionCount() > exceptionCount)
+                next.exception = sequentialParser.getLastException();
+            newSegments.add(next);
+            next = new Segment();
+        }
+
+        int oldEntryCount = 0;
+        for (int i = first; i < resume; i++) {
+            if (segments.get(i).entry != null)
+                oldEntryCount++;
+        }
+        if (resume < segments.size()) {
+            // next describes where the old segment at resume is now.
+            final Segment resumed = segments.get(resume);
+            final int line = resumed.line, lineDelta = next.line - resumed.line;
+            final int columnDelta = next.column - resumed.column;
+            for (int i = resume; i < segments.size(); i++)
+                move(segments.get(i), delta, line, lineDelta, columnDelta);
+        }
+        segments.subList(first, resume).clear();
+        segments.addAll(first, newSegments);
+        bibtexFile.replaceEntries(entryIndex, entryIndex + oldEntryCount, newEntries);
+    }
+
+    /**
+     * Moves segment and its exception by the given deltas. The column only
+     * changes on the line on which the edit ended.
+     */
+    private static void move(Segment segment, long delta, int line, int lineDelta, int columnDelta) {
+        segment.offset += delta;
+        if (segment.line == line)
+            segment.column += columnDelta;
+        segment.line += lineDelta;
+        final ParseException exception = segment.exception;
+        if (exception != null && (lineDelta != 0 || columnDelta != 0 && exception.getLine() == line)) {
+            segment.exception = exception.moveTo(exception.getLine() + lineDelta, exception.getLine() == line
+                    ? exception.getColumn() + columnDelta : exception.getColumn());
+        }
+    }
+}
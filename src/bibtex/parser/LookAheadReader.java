@@ -7,16 +7,34 @@
 package bibtex.parser;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 /**
  * This implementation now features a buffer. This is more efficient than
  * relying on BufferedReader since BufferedReader is synchronized.
  * 
+ * Besides a Reader, the input may also be a FileChannel. In that case the file
+ * is mapped into memory window by window and decoded straight into our buffer
+ * with an explicit charset, so there is neither a Reader nor a platform default
+ * encoding involved. For UTF-8 and single byte charsets, we can then also tell
+ * the byte position of the current character.
+ * 
  * @author henkel
  */
 final class LookAheadReader {
 	private final int BUFFERLEN = 512;
+	private final int MAPPED_BUFFERLEN = 64 * 1024;
+	private final long MAPPED_WINDOWLEN = 64L * 1024 * 1024;
 	public LookAheadReader(Reader input) throws IOException {
 		this.input = input;
+		this.channel = null;
+		this.decoder = null;
+		this.utf8 = false;
 		this.bufferPos = -1;
 		this.bufferFilledUntil = 0;
 		this.buffer = new char[BUFFERLEN];
@@ -25,7 +43,75 @@ final class LookAheadReader {
 		this.column = 0;
 		step();
 	}
+	/**
+	 * Reads the whole channel, starting at position 0. Malformed input is
+	 * replaced rather than reported, just like FileReader would do it.
+	 */
+	public LookAheadReader(FileChannel channel, Charset charset) throws IOException {
+		this(channel, charset, 0, 1, 0);
+	}
+	/**
+	 * Reads the channel from the given position to its end. line and column
+	 * describe the position just before the first character, i.e. they are 1
+	 * and 0 at the beginning of a file. Byte positions are relative to
+	 * position.
+	 */
+	public LookAheadReader(FileChannel channel, Charset charset, long position, int line, int column)
+		throws IOException {
+		this.input = null;
+		this.channel = channel;
+		this.channelSize = channel.size();
+		this.windowPos = position;
+		this.window = null;
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(
+			CodingErrorAction.REPLACE);
+		this.utf8 = charset.name().equals("UTF-8");
+		this.bufferPos = -1;
+		this.bufferFilledUntil = 0;
+		this.buffer = new char[MAPPED_BUFFERLEN];
+		this.eof = false;
+		this.line = line;
+		this.column = column;
+		step();
+	}
+	/**
+	 * Reads the bytes between position and limit of the given buffer. This is
+	 * used for parsing a chunk of a larger file, which is why the line and
+	 * column just before the first character have to be passed in. Byte
+	 * positions are relative to the position of the buffer.
+	 */
+	public LookAheadReader(ByteBuffer bytes, Charset charset, int line, int column) throws IOException {
+		this.input = null;
+		this.channel = null;
+		this.channelSize = bytes.remaining();
+		this.windowPos = 0;
+		this.window = bytes.slice();
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(
+			CodingErrorAction.REPLACE);
+		this.utf8 = charset.name().equals("UTF-8");
+		this.bufferPos = -1;
+		this.bufferFilledUntil = 0;
+		// small inputs, such as single entries, don't need the whole buffer.
+		this.buffer = new char[(int) Math.min(MAPPED_BUFFERLEN, channelSize + 1)];
+		this.eof = false;
+		this.line = line;
+		this.column = column;
+		step();
+	}
 	private final Reader input;
+	private final FileChannel channel;
+	private final CharsetDecoder decoder;
+	private long channelSize;
+	private long windowPos;
+	private ByteBuffer window;
+	private boolean decoderFlushed;
+	private final boolean utf8;
+	/**
+	 * for getBytePosition(): the number of bytes that the characters before
+	 * buffer[markPos] were decoded from.
+	 */
+	private long markBytes;
+	private int markPos;
 	private boolean eof;
 	private int line, column;
 	private char buffer[];
@@ -36,12 +122,21 @@ final class LookAheadReader {
 			return;
 		this.bufferPos++;
 		if (this.bufferFilledUntil <= this.bufferPos) {
-			this.bufferFilledUntil = input.read(buffer);
+			if (decoder != null) {
+				markBytes += encodedLength(markPos, this.bufferFilledUntil);
+				markPos = 0;
+			}
+			this.bufferFilledUntil = input != null ? input.read(buffer) : decode();
+			this.bufferPos = 0;
 			if (this.bufferFilledUntil == -1) {
+				// line and column stay where they were at the last character.
 				this.eof = true;
-				input.close();
+				if (input != null)
+					input.close();
+				else if (channel != null)
+					channel.close();
+				return;
 			}
-			this.bufferPos = 0;
 		}
 		char currentChar = this.buffer[bufferPos];
 		if (currentChar == '\n') {
@@ -51,6 +146,126 @@ final class LookAheadReader {
 			column++;
 		}
 	}
+	/**
+	 * Fills the buffer from the mapped window, mapping the next window when the
+	 * current one is used up. A character that is split across two windows is
+	 * left undecoded by the decoder, so the next window simply starts with its
+	 * first byte.
+	 *
+	 * @return the number of chars decoded, or -1 at the end of the channel.
+	 */
+	private int decode() throws IOException {
+		if (decoderFlushed)
+			return -1;
+		CharBuffer out = CharBuffer.wrap(buffer);
+		while (true) {
+			if (window == null || !window.hasRemaining() && windowPos + window.limit() < channelSize) {
+				if (window != null)
+					windowPos += window.position();
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowPos, Math.min(MAPPED_WINDOWLEN, channelSize
+					- windowPos));
+			}
+			final boolean endOfInput = windowPos + window.limit() >= channelSize;
+			CoderResult result = decoder.decode(window, out, endOfInput);
+			if (result.isOverflow())
+				break;
+			if (endOfInput) {
+				decoder.flush(out);
+				decoderFlushed = true;
+				break;
+			}
+			if (window.hasRemaining()) {
+				// an incomplete character at the end of the window.
+				windowPos += window.position();
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowPos, Math.min(MAPPED_WINDOWLEN,
+					channelSize - windowPos));
+			}
+		}
+		return out.position() == 0 ? -1 : out.position();
+	}
+	/**
+	 * Appends the current character and all following ones to target until
+	 * we hit a character that terminates according to the set (or EOF). This
+	 * does the same as calling getCurrent() and step() in a loop, but it
+	 * works on the buffer directly and appends whole runs at once. If target
+	 * is null, the characters are just skipped.
+	 * 
+	 * @return the classification of the terminating character, or
+	 *         TerminationSet.CONTINUE if we have reached EOF.
+	 */
+	public int scanRun(TerminationSet set, boolean whitespaceTerminates, StringBuilder target) throws IOException {
+		final byte[] table = set.asciiTable(whitespaceTerminates);
+		while (!this.eof) {
+			char c = this.buffer[this.bufferPos];
+			int classification = c < 128 ? table[c] : set.classify(c, whitespaceTerminates);
+			if (classification != TerminationSet.CONTINUE)
+				return classification;
+			final int runBegin = this.bufferPos;
+			int pos = runBegin;
+			while (pos + 1 < this.bufferFilledUntil) {
+				c = this.buffer[++pos];
+				if (c == '\n') {
+					line++;
+					column = 0;
+				} else {
+					column++;
+				}
+				classification = c < 128 ? table[c] : set.classify(c, whitespaceTerminates);
+				if (classification != TerminationSet.CONTINUE) {
+					if (target != null)
+						target.append(this.buffer, runBegin, pos - runBegin);
+					this.bufferPos = pos;
+					return classification;
+				}
+			}
+			// the run continues beyond the buffer.
+			if (target != null)
+				target.append(this.buffer, runBegin, pos + 1 - runBegin);
+			this.bufferPos = pos;
+			step();
+		}
+		return TerminationSet.CONTINUE;
+	}
+	/**
+	 * @return true if getBytePosition() works for input in the given charset.
+	 */
+	static boolean canTrackBytePositions(Charset charset) {
+		return charset.name().equals("UTF-8") || charset.newEncoder().maxBytesPerChar() == 1.0f;
+	}
+	/**
+	 * Only for mapped input in a charset for which canTrackBytePositions() is
+	 * true. The position is computed from the decoded characters, so it's only
+	 * exact if the input is well-formed. Calls are cheap as long as the
+	 * position moves forward in between.
+	 * 
+	 * @return the position of the first byte of the current character, or the
+	 *         length of the input at EOF.
+	 */
+	public long getBytePosition() {
+		assert decoder != null : "byte positions are only available for mapped input.";
+		if (!this.eof) {
+			markBytes += encodedLength(markPos, this.bufferPos);
+			markPos = this.bufferPos;
+		}
+		return markBytes;
+	}
+	/**
+	 * @return the number of bytes buffer[from..to) were decoded from.
+	 */
+	private int encodedLength(int from, int to) {
+		if (!utf8)
+			return to - from;
+		int length = to - from;
+		for (int i = from; i < to; i++) {
+			final char c = this.buffer[i];
+			if (c >= 0x80) {
+				// surrogates come in pairs, so each one counts for half of the
+				// four bytes.
+				length += c < 0x800 || Character.isSurrogate(c) ? 1 : 2;
+			}
+		}
+		return length;
+	}
 	public char getCurrent() {
 		assert (!this.eof);
 		return this.buffer[this.bufferPos];
@@ -0,0 +1,174 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexFile;
+
+/**
+ * Splits a file into chunks of top level entries and parses them on a
+ * fork-join pool. The chunk boundaries are '@' signs that are the first
+ * character of a line and not inside any braces - finding them is a simple
+ * scan over the bytes, which is much cheaper than parsing.
+ *
+ * @see BibtexParser#setParallelism(int)
+ */
+final class ParallelParser {
+
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * The result of parsing one chunk.
+     */
+    static final class Chunk {
+        List<BibtexAbstractEntry> entries = Collections.emptyList();
+
+        List<ParseException> exceptions = Collections.emptyList();
+
+        /**
+         * A ParseException or IOException that ended the parsing of this
+         * chunk, or null.
+         */
+        Exception failure;
+    }
+
+    /**
+     * the pool of the parsers that don't have one of their own, like
+     * ForkJoinPool.commonPool() in Java 8. Its threads are daemons.
+     */
+    private static ForkJoinPool sharedPool;
+
+    private ParallelParser() {
+    }
+
+    static synchronized ForkJoinPool sharedPool() {
+        if (sharedPool == null)
+            sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return sharedPool;
+    }
+
+    /**
+     * We split at bytes, so the charset has to encode '@', the braces and
+     * newlines as in ASCII and must not use these bytes for anything else.
+     */
+    static boolean canSplit(Charset charset) {
+        if (!charset.canEncode())
+            return false;
+        if (!charset.name().equals("UTF-8") && charset.newEncoder().maxBytesPerChar() != 1.0f)
+            return false;
+        return Arrays.equals("@{}\n".getBytes(charset), new byte[] { '@', '{', '}', '\n' });
+    }
+
+    /**
+     * @return the parsed chunks in file order, or null if the file is too
+     *         small to be worth splitting.
+     */
+    static Chunk[] parse(BibtexParser parser, final BibtexFile bibtexFile, FileChannel channel,
+            final Charset charset, int parallelism, ForkJoinPool pool) throws IOException {
+        final long size = channel.size();
+        final List<long[]> boundaries = split(channel, size, Math.max(MIN_CHUNK_SIZE, size
+                / (parallelism * CHUNKS_PER_THREAD)));
+        if (boundaries.size() < 2)
+            return null;
+        List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>(boundaries.size());
+        for (int i = 0; i < boundaries.size(); i++) {
+            final long begin = boundaries.get(i)[0];
+            final long end = i + 1 < boundaries.size() ? boundaries.get(i + 1)[0] : size;
+            if (end - begin > Integer.MAX_VALUE)
+                return null;
+            final int firstLine = (int) boundaries.get(i)[1];
+            final ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, begin, end - begin);
+            final BibtexParser chunkParser = parser.newSequentialParser();
+            if (parser.getSource() != null)
+                chunkParser.setSource(parser.getSource(), begin);
+            tasks.add(new Callable<Chunk>() {
+                public Chunk call() {
+                    Chunk chunk = new Chunk();
+                    try {
+                        chunk.entries = chunkParser.parseChunk(bibtexFile, new PseudoLexer(bytes, charset, firstLine, 0));
+                    } catch (ParseException e) {
+                        chunk.failure = e;
+                    } catch (IOException e) {
+                        chunk.failure = e;
+                    }
+                    chunk.exceptions = Arrays.asList(chunkParser.getExceptions());
+                    return chunk;
+                }
+            });
+        }
+
+        try {
+            List<Future<Chunk>> futures = pool.invokeAll(tasks);
+            Chunk[] result = new Chunk[futures.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = futures.get(i).get();
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while parsing in parallel", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw (Error) e.getCause();
+        }
+    }
+
+    /**
+     * @return pairs of (offset, line) at which the chunks begin. The first
+     *         chunk always begins at (0, 1).
+     */
+    private static List<long[]> split(FileChannel channel, long size, long chunkSize) throws IOException {
+        List<long[]> boundaries = new ArrayList<long[]>();
+        boundaries.add(new long[] { 0, 1 });
+        long nextBoundary = chunkSize;
+        long line = 1;
+        int braceDepth = 0;
+        boolean atLineStart = true;
+        for (long windowPos = 0; windowPos < size; windowPos += WINDOW_SIZE) {
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowPos, Math.min(WINDOW_SIZE, size
+                    - windowPos));
+            for (int i = 0, limit = window.limit(); i < limit; i++) {
+                switch (window.get(i)) {
+                case '\n':
+                    line++;
+                    atLineStart = true;
+                    continue;
+                case '{':
+                    braceDepth++;
+                    break;
+                case '}':
+                    if (braceDepth > 0)
+                        braceDepth--;
+                    break;
+                case '@':
+                    if (atLineStart && braceDepth == 0 && windowPos + i >= nextBoundary) {
+                        boundaries.add(new long[] { windowPos + i, line });
+                        nextBoundary = windowPos + i + chunkSize;
+                    }
+                    break;
+                }
+                atLineStart = false;
+            }
+        }
+        return boundaries;
+    }
+}
@@ -12,8 +12,84 @@ package bibtex.parser;
 public final class ParseException extends Exception {
 
 	ParseException(int line, int column, String encountered, String expected){
-		super(""+line+":"+column+": encountered '"+encountered+"', expected '"+expected+"'.");	
+		this(line, column, encountered, expected, true);
+	}
+
+	/**
+	 * The parser creates the exceptions it collects (rather than throws) without
+	 * a stack trace - filling in the stack trace is by far the most expensive part
+	 * of creating an exception, and it wouldn't tell anything about the input anyway.
+	 * The message is only formatted when it's asked for.
+	 */
+	ParseException(int line, int column, String encountered, String expected, boolean withStackTrace){
+		super(null, null, true, withStackTrace);
+		this.line = line;
+		this.column = column;
+		this.encountered = encountered;
+		this.expected = expected;
+		this.message = null;
+	}
+
+	/**
+	 * For errors that are not about a particular character in the input.
+	 */
+	ParseException(int line, int column, String message){
+		super(null, null, true, true);
+		this.line = line;
+		this.column = column;
+		this.encountered = null;
+		this.expected = null;
+		this.message = message;
+	}
+
+	/**
+	 * @return a copy of this exception that is located at line and column instead,
+	 *         with the stack trace of this exception (if it has one).
+	 */
+	ParseException moveTo(int line, int column) {
+		ParseException result = message != null ? new ParseException(line, column, message)
+				: new ParseException(line, column, encountered, expected, getStackTrace().length > 0);
+		result.setStackTrace(getStackTrace());
+		return result;
+	}
+
+	private final int line, column;
+	private final String encountered, expected, message;
+
+	public String getMessage() {
+		if (message != null)
+			return ""+line+":"+column+": "+message;
+		return ""+line+":"+column+": encountered '"+encountered+"', expected '"+expected+"'.";
+	}
+
+	/**
+	 * @return the line (starting at 1) at which the error occurred.
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * @return the column (starting at 1) at which the error occurred.
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * @return what the parser found, e.g. "}" or "[EOF]", or null if this
+	 *         exception is not about unexpected input.
+	 */
+	public String getEncountered() {
+		return encountered;
+	}
+
+	/**
+	 * @return a description of what the parser expected instead, or null if
+	 *         this exception is not about unexpected input.
+	 */
+	public String getExpected() {
+		return expected;
 	}
-	
 
 }
@@ -8,62 +8,66 @@ package bibtex.parser;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 /**
  * this is not a real lexer, since bibtex is such an insane format...
  * 
+ * There are no token objects: the scan methods either return the index of
+ * what they found or append what they scanned to a StringBuilder supplied by
+ * the caller, who can reuse it and decides whether a String is needed at all.
+ * 
  * @author henkel
  */
 final class PseudoLexer {
 
-	static final class Token {
-		Token(int choice, String content, int line, int column) {
-			this.choice = choice;
-			this.content = content;
-			this.line = line;
-			this.column = column;
-		}
-
-		final int choice;
-		final String content;
-		final int line, column;
-	}
-
 	private final LookAheadReader input;
-	private Token eofToken = null;
+	private boolean eofReached = false;
+	private int eofLine, eofColumn;
+	private final StringBuilder scratch = new StringBuilder();
+	private boolean stacklessExceptions = false;
+	private boolean errorSkippedEntryStart = false;
 
 	PseudoLexer(Reader input) throws IOException {
 		this.input = new LookAheadReader(input);
 	}
 
-	Token getNextToken() {
-		return null;
+	PseudoLexer(FileChannel input, Charset charset) throws IOException {
+		this.input = new LookAheadReader(input, charset);
+	}
+
+	PseudoLexer(ByteBuffer input, Charset charset, int line, int column) throws IOException {
+		this.input = new LookAheadReader(input, charset, line, column);
+	}
+
+	PseudoLexer(FileChannel input, Charset charset, long position, int line, int column) throws IOException {
+		this.input = new LookAheadReader(input, charset, position, line, column);
 	}
 
 	/**
-	 * if it's a top level comment, result.choice will be 0, for @ 1, for EOF 2.
+	 * if it's a top level comment, the result will be 0 and the comment is
+	 * appended to content, for @ 1, for EOF 2.
 	 * 
-	 * @return Token
+	 * @return int
 	 */
-	public Token scanTopLevelCommentOrAtOrEOF() throws IOException {
+	public int scanTopLevelCommentOrAtOrEOF(StringBuilder content) throws IOException {
 		skipWhitespace();
-		if (eofToken != null) {
-			return new Token(2, eofToken.content, eofToken.line, eofToken.column);
+		if (eofReached) {
+			return 2;
 		}
 
-		final int column = input.getColumn(), line = input.getLine();
 		if (input.getCurrent() == '@') {
 			input.step();
-			return new Token(1, "@", line, column);
+			return 1;
 		}
-		StringBuffer content = new StringBuffer();
-		while (!input.eof() && input.getCurrent() != '@') {
-			content.append(input.getCurrent());
-			input.step();
-		}
-		return new Token(0, content.toString(), line, column);
+		input.scanRun(AT, false, content);
+		return 0;
 	}
 
+	private static final TerminationSet AT = new TerminationSet(new char[] { '@' });
+
 	/**
 	 * the return value is an index into alternatives. If lookAhead is true we
 	 * will not move forward ...
@@ -71,26 +75,25 @@ final class PseudoLexer {
 	 * @param alternatives
 	 * @return int
 	 */
-	public final int scanAlternatives(char[] alternatives, boolean lookAhead)
+	public final int scanAlternatives(TerminationSet alternatives, boolean lookAhead)
 		throws IOException, ParseException {
 		skipWhitespace();
-		if (eofToken != null)
-			throw new ParseException(
-				eofToken.line,
-				eofToken.column,
+		if (eofReached)
+			throw parseException(
+				eofLine,
+				eofColumn,
 				"[EOF]",
-				alternativesToString(alternatives));
+				alternatives.toString());
 		final int line = input.getLine(), column = input.getColumn();
-		for (int i = 0; i < alternatives.length; i++) {
-			if (alternatives[i] == input.getCurrent()) {
-				if (!lookAhead)
-					input.step();
-				return i;
-			}
+		final int classification = alternatives.classify(input.getCurrent(), false);
+		if (classification >= TerminationSet.FIRST_TERMINATOR) {
+			if (!lookAhead)
+				input.step();
+			return classification - TerminationSet.FIRST_TERMINATOR;
 		}
 		if (!lookAhead)
-			input.step();
-		throw new ParseException(line, column, "" + input.getCurrent(), alternativesToString(alternatives));
+			stepOverError();
+		throw parseException(line, column, "" + input.getCurrent(), alternatives.toString());
 	}
 
 	//	/**
@@ -139,11 +142,11 @@ final class PseudoLexer {
 	// alternativesToString(alternatives));
 	//	}
 
-	public String scanLiteral(char[] terminationSet, boolean excludeWhitespace, boolean enforceNonzero)
+	public String scanLiteral(TerminationSet terminationSet, boolean excludeWhitespace, boolean enforceNonzero)
 		throws ParseException, IOException {
-		StringBuffer buffer = new StringBuffer();
-		scanLiteral(terminationSet, excludeWhitespace, enforceNonzero, buffer);
-		return buffer.toString();
+		scratch.setLength(0);
+		scanLiteral(terminationSet, excludeWhitespace, enforceNonzero, scratch);
+		return scratch.toString();
 	}
 
 	/**
@@ -153,54 +156,49 @@ final class PseudoLexer {
 	 * @return Token
 	 */
 	public int scanLiteral(
-		char[] terminationSet,
+		TerminationSet terminationSet,
 		boolean excludeWhitespace,
 		boolean enforceNonzero,
-		StringBuffer resultTargetBuffer)
+		StringBuilder resultTargetBuffer)
 		throws ParseException, IOException {
 		if (excludeWhitespace) {
 			skipWhitespace();
 
-			if (eofToken != null)
-				throw new ParseException(
-					eofToken.line,
-					eofToken.column,
+			if (eofReached)
+				throw parseException(
+					eofLine,
+					eofColumn,
 					"[EOF]",
-					"not (" + alternativesToString(terminationSet) + " or [whitespace])");
-		} else
-			enforceNoEof("not (" + alternativesToString(terminationSet) + ")", false);
-		final int line = input.getLine(), column = input.getColumn();
-		int indexIntoTerminationSet = -1;
-		final int initialResultTargetBufferLength = resultTargetBuffer.length();
-		while (true) {
+					"not (" + terminationSet + " or [whitespace])");
+		} else {
 			if (input.eof())
-				break;
-			final char inputChar = input.getCurrent();
-
-			indexIntoTerminationSet = index(terminationSet, inputChar);
-			if (indexIntoTerminationSet >= 0 || excludeWhitespace && Character.isWhitespace(inputChar)) {
-				break;
-			} else {
-				input.step();
-				resultTargetBuffer.append(inputChar);
-			}
+				reachEof();
+			if (eofReached)
+				throw parseException(eofLine, eofColumn, "[EOF]", "not (" + terminationSet + ")");
 		}
+		final int line = input.getLine(), column = input.getColumn();
+		final int initialResultTargetBufferLength = resultTargetBuffer.length();
+		final int classification = input.scanRun(terminationSet, excludeWhitespace, resultTargetBuffer);
+		final int indexIntoTerminationSet =
+			classification >= TerminationSet.FIRST_TERMINATOR ? classification - TerminationSet.FIRST_TERMINATOR : -1;
 
 		if (resultTargetBuffer.length() > initialResultTargetBufferLength || !enforceNonzero) {
 			return indexIntoTerminationSet;
 		} else {
-			throw new ParseException(
+			throw parseException(
 				line,
 				column,
 				"" + input.getCurrent(),
-				"not (" + alternativesToString(terminationSet) + " or [whitespace])");
+				"not (" + terminationSet + " or [whitespace])");
 		}
 	}
 
-	private static final char[] QUOTE_OR_LBRACE = new char[] { '\"', '{' };
+	private static final TerminationSet QUOTE_OR_LBRACE = new TerminationSet(new char[] { '\"', '{' });
 
-	public String scanQuotedString() throws IOException, ParseException {
-		StringBuffer content = new StringBuffer();
+	/**
+	 * the content without the quotes is appended to content.
+	 */
+	public void scanQuotedString(StringBuilder content) throws IOException, ParseException {
 		scan('"');
 		while (true) {
 			final int choice = this.scanLiteral(QUOTE_OR_LBRACE, false, false, content);
@@ -211,36 +209,48 @@ final class PseudoLexer {
 			}
 		}
 		scan('"');
-		return content.toString();
 	}
 
-	private final char[] RBRACE_LBRACE = new char[] { '}', '{' };
+	private static final TerminationSet RBRACE_LBRACE = new TerminationSet(new char[] { '}', '{' });
 
-	public void scanBracketedString(StringBuffer targetBuffer, boolean includeOuterBraces)
+	/**
+	 * Nested braces are tracked with a counter rather than by recursion, so
+	 * arbitrarily deep nesting can't overflow the stack.
+	 */
+	public void scanBracketedString(StringBuilder targetBuffer, boolean includeOuterBraces)
 		throws ParseException, IOException {
 		scan('{');
 		if (includeOuterBraces)
 			targetBuffer.append('{');
+		int depth = 1;
 		while (true) {
 			final int choice = this.scanLiteral(RBRACE_LBRACE, false, false, targetBuffer);
 
 			if (choice == 0) { // we terminated with '}'
-				break;
+				if (--depth == 0)
+					break;
+				scan('}');
+				targetBuffer.append('}');
 			} else { // we terminated with '{'
-				scanBracketedString(targetBuffer, true);
+				scan('{');
+				targetBuffer.append('{');
+				depth++;
 			}
 		}
 		scan('}');
 		if (includeOuterBraces)
-			targetBuffer.append("}");
+			targetBuffer.append('}');
 	}
 
-	public String scanEntryTypeName() throws ParseException, IOException {
+	/**
+	 * the entry type name is appended to result.
+	 */
+	public void scanEntryTypeName(StringBuilder result) throws ParseException, IOException {
 		skipWhitespace();
-		if (eofToken != null)
-			throw new ParseException(eofToken.line, eofToken.column, "[EOF]", "[a..z,A..Z]");
+		if (eofReached)
+			throw parseException(eofLine, eofColumn, "[EOF]", "[a..z,A..Z]");
 		final int line = input.getLine(), column = input.getColumn();
-		StringBuffer result = new StringBuffer();
+		final int initialResultLength = result.length();
 		while (true) {
 			enforceNoEof("[a..z,A..Z]", false);
 			char inputChar = input.getCurrent();
@@ -252,35 +262,39 @@ final class PseudoLexer {
 				break;
 			}
 		}
-		if (result.length() == 0) {
-			throw new ParseException(line, column, "" + input.getCurrent(), "[a..z,A..Z]");
+		if (result.length() == initialResultLength) {
+			throw parseException(line, column, "" + input.getCurrent(), "[a..z,A..Z]");
 		}
-		return result.toString();
-
 	}
 
 	public void scan(char expected) throws ParseException, IOException {
 		skipWhitespace();
-		if (eofToken != null)
-			throw new ParseException(eofToken.line, eofToken.column, "[EOF]", "" + expected);
+		if (eofReached)
+			throw parseException(eofLine, eofColumn, "[EOF]", "" + expected);
 		final char encountered = input.getCurrent();
 		if (encountered != expected) {
 			final int line = input.getLine(), column = input.getColumn();
-			input.step();
-			throw new ParseException(line, column, "" + encountered, "" + expected);
+			stepOverError();
+			throw parseException(line, column, "" + encountered, "" + expected);
 		} else input.step();
 	}
 
 	public void skipWhitespace() throws IOException {
-		if (eofToken != null)
+		if (eofReached)
 			return;
-		while (!input.eof() && Character.isWhitespace(input.getCurrent()))
+		while (!input.eof() && TerminationSet.isWhitespace(input.getCurrent()))
 			input.step();
 		if (input.eof()) {
-			eofToken = new Token(-1, null, input.getLine(), input.getColumn());
+			reachEof();
 		}
 	}
 
+	private void reachEof() {
+		eofReached = true;
+		eofLine = input.getLine();
+		eofColumn = input.getColumn();
+	}
+
 	/**
 	 * make sure you call
 	 * 
@@ -290,10 +304,10 @@ final class PseudoLexer {
 		if (skipWhiteSpace)
 			skipWhitespace();
 		else if (input.eof()) {
-			eofToken = new Token(-1, null, input.getLine(), input.getColumn());
+			reachEof();
 		}
-		if (eofToken != null)
-			throw new ParseException(eofToken.line, eofToken.column, "[EOF]", "" + expected);
+		if (eofReached)
+			throw parseException(eofLine, eofColumn, "[EOF]", "" + expected);
 	}
 
 	/**
@@ -305,18 +319,65 @@ final class PseudoLexer {
 		return input.getCurrent();
 	}
 
-	private static String alternativesToString(char[] alternatives) {
-		StringBuffer buffer = new StringBuffer();
-		buffer.append("one of ");
-		for (int i = 0; i < alternatives.length; i++) {
-			if (i != 0)
-				buffer.append(',');
-			buffer.append('\'');
-			buffer.append(alternatives[i]);
-			buffer.append('\'');
+	/**
+	 * Skips everything up to the next '@' that is the first character of a
+	 * line, which is where the next entry most likely begins. This is meant to
+	 * be called right after a ParseException.
+	 * 
+	 * @return true if the offending character of the last ParseException was
+	 *         such an '@' - we have stepped over it already, so the caller
+	 *         should go on with the rest of the entry. Otherwise, we stop at
+	 *         the '@' (or at EOF) and return false.
+	 */
+	public boolean skipToNextEntry() throws IOException {
+		if (errorSkippedEntryStart) {
+			errorSkippedEntryStart = false;
+			return true;
+		}
+		while (!input.eof()) {
+			input.scanRun(AT, false, null);
+			if (input.eof() || input.getColumn() == 1)
+				break;
+			input.step();
 		}
+		return false;
+	}
 
-		return buffer.toString();
+	private void stepOverError() throws IOException {
+		errorSkippedEntryStart = input.getCurrent() == '@' && input.getColumn() == 1;
+		input.step();
+	}
+
+	/**
+	 * @see LookAheadReader#getBytePosition()
+	 */
+	long getBytePosition() {
+		return input.getBytePosition();
+	}
+
+	/**
+	 * @return the line of the next character to be scanned.
+	 */
+	int getLine() {
+		return input.getLine();
+	}
+
+	/**
+	 * @return the column of the next character to be scanned.
+	 */
+	int getColumn() {
+		return input.getColumn();
+	}
+
+	/**
+	 * If this is set, the ParseExceptions don't get a stack trace.
+	 */
+	void setStacklessExceptions(boolean stacklessExceptions) {
+		this.stacklessExceptions = stacklessExceptions;
+	}
+
+	private ParseException parseException(int line, int column, String encountered, String expected) {
+		return new ParseException(line, column, encountered, expected, !stacklessExceptions);
 	}
 
 	private static String alternativesToString(Object[] alternatives) {
@@ -332,13 +393,4 @@ final class PseudoLexer {
 
 		return buffer.toString();
 	}
-
-	private static int index(char[] container, char element) {
-		for (int i = 0; i < container.length; i++) {
-			if (container[i] == element)
-				return i;
-		}
-		return -1;
-
-	}
 }
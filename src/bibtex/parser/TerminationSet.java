@@ -0,0 +1,101 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.parser;
+
+/**
+ * A set of characters that terminate a literal, together with a lookup table
+ * for the ASCII range, so that the lexer can classify a character with one
+ * array access instead of searching the set and calling
+ * Character.isWhitespace.
+ *
+ * The table entries are CONTINUE for characters that belong to the literal,
+ * WHITESPACE for whitespace and FIRST_TERMINATOR + i for the i-th character of
+ * the set.
+ */
+final class TerminationSet {
+
+    static final byte CONTINUE = 0;
+
+    static final byte WHITESPACE = 1;
+
+    static final byte FIRST_TERMINATOR = 2;
+
+    private static final boolean[] ASCII_WHITESPACE = new boolean[128];
+    static {
+        for (char c = 0; c < 128; c++)
+            ASCII_WHITESPACE[c] = Character.isWhitespace(c);
+    }
+
+    static boolean isWhitespace(char c) {
+        return c < 128 ? ASCII_WHITESPACE[c] : Character.isWhitespace(c);
+    }
+
+    private final char[] terminators;
+
+    /**
+     * classification of the ASCII characters, without and with whitespace
+     * terminating the literal.
+     */
+    private final byte[] table, tableWithWhitespace;
+
+    private final String description;
+
+    TerminationSet(char[] terminators) {
+        assert terminators.length < 126 : "terminators parameter is too large.";
+
+        this.terminators = terminators.clone();
+        this.table = new byte[128];
+        this.tableWithWhitespace = new byte[128];
+        for (char c = 0; c < 128; c++) {
+            if (ASCII_WHITESPACE[c])
+                tableWithWhitespace[c] = WHITESPACE;
+        }
+        for (int i = terminators.length - 1; i >= 0; i--) {
+            if (terminators[i] < 128) {
+                table[terminators[i]] = (byte) (FIRST_TERMINATOR + i);
+                tableWithWhitespace[terminators[i]] = (byte) (FIRST_TERMINATOR + i);
+            }
+        }
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("one of ");
+        for (int i = 0; i < terminators.length; i++) {
+            if (i != 0)
+                buffer.append(',');
+            buffer.append('\'');
+            buffer.append(terminators[i]);
+            buffer.append('\'');
+        }
+        this.description = buffer.toString();
+    }
+
+    /**
+     * @return CONTINUE, WHITESPACE or FIRST_TERMINATOR + the index of c in
+     *         this set.
+     */
+    int classify(char c, boolean whitespaceTerminates) {
+        if (c < 128)
+            return whitespaceTerminates ? tableWithWhitespace[c] : table[c];
+        for (int i = 0; i < terminators.length; i++) {
+            if (terminators[i] == c)
+                return FIRST_TERMINATOR + i;
+        }
+        return whitespaceTerminates && Character.isWhitespace(c) ? WHITESPACE : CONTINUE;
+    }
+
+    /**
+     * @return the classification of the characters below 128 - all others
+     *         have to go through classify.
+     */
+    byte[] asciiTable(boolean whitespaceTerminates) {
+        return whitespaceTerminates ? tableWithWhitespace : table;
+    }
+
+    /**
+     * @return e.g. "one of '{','('", for error messages.
+     */
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import bibtex.dom.BibtexAbstractValue;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexFileListener;
+import bibtex.dom.BibtexMultipleValues;
+import bibtex.dom.BibtexPerson;
+import bibtex.dom.BibtexPersonList;
+import bibtex.dom.BibtexString;
+
+/**
+ * A secondary index over the entries of a BibtexFile, e.g. from years to the
+ * entries of that year. An index registers itself as a listener of the file,
+ * so it stays up to date when entries are added, removed or changed -
+ * BibtexQuery uses the indexes of a file automatically.
+ *
+ * <pre>
+ * BibtexEntryIndex.create(file, BibtexEntryIndex.YEAR);
+ * List result = BibtexQuery.year(2010, 2014).execute(file);
+ * </pre>
+ *
+ * Index keys are normalized: lower case, without curly braces.
+ */
+public final class BibtexEntryIndex implements BibtexFileListener {
+
+    /**
+     * Indexes the entry type.
+     */
+    public static final int ENTRY_TYPE = 0;
+
+    /**
+     * Indexes the first four digit number in the year field. This index is
+     * sorted, so it can answer range queries.
+     */
+    public static final int YEAR = 1;
+
+    /**
+     * Indexes the last names of the authors - the author field may be a
+     * BibtexString or, after the PersonListExpander, a BibtexPersonList.
+     */
+    public static final int AUTHOR = 2;
+
+    /**
+     * Indexes the crossref field, i.e. the key of the parent entry.
+     */
+    public static final int CROSSREF = 3;
+
+    /**
+     * Indexes the dblpkey field.
+     */
+    public static final int DBLP_KEY = 4;
+
+    private static final String[] FIELD_NAMES = { null, "year", "author", "crossref", "dblpkey" };
+
+    /**
+     * Buckets with more entries than this are kept in an identity set rather
+     * than a list, so that removing an entry stays cheap.
+     */
+    private static final int MAX_LIST_BUCKET = 16;
+
+    private final BibtexFile file;
+
+    private final int kind;
+
+    /**
+     * normalized key to BibtexEntry, or to an ArrayList or identity set of
+     * BibtexEntry objects.
+     */
+    private final Map<String, Object> buckets;
+
+    private final ArrayList<String> scratchKeys = new ArrayList<String>();
+
+    private BibtexEntryIndex(BibtexFile file, int kind) {
+        this.file = file;
+        this.kind = kind;
+        this.buckets = kind == YEAR ? new TreeMap<String, Object>() : new HashMap<String, Object>();
+    }
+
+    /**
+     * Builds an index over the entries of file and keeps it up to date until
+     * detach() is called.
+     *
+     * @param kind
+     *            one of the constants of this class.
+     */
+    public static BibtexEntryIndex create(BibtexFile file, int kind) {
+
+        assert file != null : "file parameter may not be null.";
+        assert kind >= ENTRY_TYPE && kind <= DBLP_KEY : "kind parameter must be one of the constants.";
+
+        final BibtexEntryIndex index = new BibtexEntryIndex(file, kind);
+        for (BibtexEntry entry : file.getBibtexEntries())
+            index.entryAdded(entry);
+        file.addListener(index);
+        return index;
+    }
+
+    /**
+     * @return the index of the given kind for file, or null if there is none.
+     */
+    public static BibtexEntryIndex find(BibtexFile file, int kind) {
+        for (BibtexFileListener listener : file.getListeners()) {
+            if (listener instanceof BibtexEntryIndex && ((BibtexEntryIndex) listener).kind == kind)
+                return (BibtexEntryIndex) listener;
+        }
+        return null;
+    }
+
+    /**
+     * Stops maintaining this index.
+     */
+    public void detach() {
+        file.removeListener(this);
+    }
+
+    public BibtexFile getFile() {
+        return file;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the entries for key, in no particular order.
+     */
+    public Collection<BibtexEntry> lookup(String key) {
+
+        assert key != null : "key parameter may not be null.";
+
+        return toCollection(buckets.get(normalize(key)));
+    }
+
+    /**
+     * @return the number of entries for key.
+     */
+    public int count(String key) {
+
+        assert key != null : "key parameter may not be null.";
+
+        return size(buckets.get(normalize(key)));
+    }
+
+    /**
+     * Only for YEAR indexes.
+     *
+     * @return the entries for the keys from fromKey to toKey (both inclusive),
+     *         in no particular order.
+     */
+    public Collection<BibtexEntry> lookupRange(String fromKey, String toKey) {
+
+        assert kind == YEAR : "only YEAR indexes are sorted.";
+
+        final ArrayList<BibtexEntry> result = new ArrayList<BibtexEntry>();
+        for (Object bucket : ((TreeMap<String, Object>) buckets).subMap(fromKey, true, toKey, true).values())
+            result.addAll(toCollection(bucket));
+        return result;
+    }
+
+    /**
+     * Only for YEAR indexes.
+     *
+     * @return the number of entries for the keys from fromKey to toKey (both
+     *         inclusive).
+     */
+    public int countRange(String fromKey, String toKey) {
+
+        assert kind == YEAR : "only YEAR indexes are sorted.";
+
+        int count = 0;
+        for (Object bucket : ((TreeMap<String, Object>) buckets).subMap(fromKey, true, toKey, true).values())
+            count += size(bucket);
+        return count;
+    }
+
+    /**
+     * @return the keys of this index - sorted for YEAR indexes.
+     */
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(buckets.keySet());
+    }
+
+    public void entryAdded(BibtexEntry entry) {
+        scratchKeys.clear();
+        keysOf(kind, entry, scratchKeys);
+        for (int i = 0; i < scratchKeys.size(); i++)
+            add(scratchKeys.get(i), entry);
+    }
+
+    public void entryRemoved(BibtexEntry entry) {
+        scratchKeys.clear();
+        keysOf(kind, entry, scratchKeys);
+        for (int i = 0; i < scratchKeys.size(); i++)
+            remove(scratchKeys.get(i), entry);
+    }
+
+    public void entryChanging(BibtexEntry entry, String fieldName) {
+        if (dependsOn(fieldName))
+            entryRemoved(entry);
+    }
+
+    public void entryChanged(BibtexEntry entry, String fieldName) {
+        if (dependsOn(fieldName))
+            entryAdded(entry);
+    }
+
+    private boolean dependsOn(String fieldName) {
+        return fieldName == null ? kind == ENTRY_TYPE : fieldName.equals(FIELD_NAMES[kind]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(String key, BibtexEntry entry) {
+        final Object bucket = buckets.get(key);
+        if (bucket == null) {
+            buckets.put(key, entry);
+        } else if (bucket instanceof BibtexEntry) {
+            if (bucket == entry)
+                return;
+            final ArrayList<BibtexEntry> list = new ArrayList<BibtexEntry>(4);
+            list.add((BibtexEntry) bucket);
+            list.add(entry);
+            buckets.put(key, list);
+        } else if (bucket instanceof ArrayList) {
+            final ArrayList<BibtexEntry> list = (ArrayList<BibtexEntry>) bucket;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) == entry)
+                    return;
+            }
+            if (list.size() < MAX_LIST_BUCKET) {
+                list.add(entry);
+            } else {
+                final Set<BibtexEntry> set = Collections.newSetFromMap(new IdentityHashMap<BibtexEntry, Boolean>());
+                set.addAll(list);
+                set.add(entry);
+                buckets.put(key, set);
+            }
+        } else {
+            ((Set<BibtexEntry>) bucket).add(entry);
+        }
+    }
+
+    private void remove(String key, BibtexEntry entry) {
+        final Object bucket = buckets.get(key);
+        if (bucket == entry) {
+            buckets.remove(key);
+        } else if (bucket instanceof ArrayList) {
+            final ArrayList<?> list = (ArrayList<?>) bucket;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) == entry) {
+                    list.remove(i);
+                    break;
+                }
+            }
+            if (list.size() == 1)
+                buckets.put(key, list.get(0));
+        } else if (bucket instanceof Set) {
+            final Set<?> set = (Set<?>) bucket;
+            set.remove(entry);
+            if (set.isEmpty())
+                buckets.remove(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<BibtexEntry> toCollection(Object bucket) {
+        if (bucket == null)
+            return Collections.emptyList();
+        if (bucket instanceof BibtexEntry)
+            return Collections.singletonList((BibtexEntry) bucket);
+        return Collections.unmodifiableCollection((Collection<BibtexEntry>) bucket);
+    }
+
+    private static int size(Object bucket) {
+        if (bucket == null)
+            return 0;
+        if (bucket instanceof BibtexEntry)
+            return 1;
+        return ((Collection<?>) bucket).size();
+    }
+
+    /**
+     * @return s in lower case and without curly braces.
+     */
+    static String normalize(String s) {
+        if (s.indexOf('{') >= 0 || s.indexOf('}') >= 0) {
+            final StringBuilder builder = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c != '{' && c != '}')
+                    builder.append(c);
+            }
+            s = builder.toString();
+        }
+        return s.trim().toLowerCase();
+    }
+
+    /**
+     * Adds the normalized keys of entry for an index of the given kind to
+     * keys. BibtexQuery uses this as well, so that queries match the entries
+     * that the index returns. Only the fields of entry itself count, not the
+     * ones it inherits (see BibtexEntry.setInheritedFrom()).
+     */
+    static void keysOf(int kind, BibtexEntry entry, List<String> keys) {
+        if (kind == ENTRY_TYPE) {
+            keys.add(entry.getEntryType());
+            return;
+        }
+        final BibtexAbstractValue value = entry.getOwnFieldValue(FIELD_NAMES[kind]);
+        if (value instanceof BibtexMultipleValues) {
+            for (Iterator<?> it = ((BibtexMultipleValues) value).getValues().iterator(); it.hasNext();)
+                keysOf(kind, (BibtexAbstractValue) it.next(), keys);
+        } else if (value != null) {
+            keysOf(kind, value, keys);
+        }
+    }
+
+    private static void keysOf(int kind, BibtexAbstractValue value, List<String> keys) {
+        if (value instanceof BibtexPersonList) {
+            if (kind == AUTHOR) {
+                for (Iterator<?> it = ((BibtexPersonList) value).getList().iterator(); it.hasNext();) {
+                    final BibtexPerson person = (BibtexPerson) it.next();
+                    if (!person.isOthers() && person.getLast() != null)
+                        keys.add(normalize(person.getLast()));
+                }
+            }
+            return;
+        }
+        if (!(value instanceof BibtexString))
+            return;
+        final String content = ((BibtexString) value).getContent();
+        switch (kind) {
+        case YEAR:
+            final String year = year(content);
+            if (year != null)
+                keys.add(year);
+            break;
+        case AUTHOR:
+            lastNames(content, keys);
+            break;
+        default:
+            keys.add(normalize(content));
+        }
+    }
+
+    /**
+     * @return the first run of exactly four digits in content, or null.
+     */
+    static String year(String content) {
+        int run = 0;
+        for (int i = 0; i <= content.length(); i++) {
+            final char c = i < content.length() ? content.charAt(i) : ' ';
+            if ('0' <= c && c <= '9') {
+                run++;
+            } else {
+                if (run == 4)
+                    return content.substring(i - 4, i);
+                run = 0;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the normalized last names of an unexpanded author list: the names
+     * are separated by "and" at brace level 0, and the last name is the part
+     * before the first comma or, without a comma, the last word. This skips
+     * the von part rules of the PersonListExpander, but it is good enough for
+     * finding an author.
+     */
+    private static void lastNames(String content, List<String> keys) {
+        int depth = 0, nameBegin = 0, comma = -1;
+        final int length = content.length();
+        for (int i = 0; i <= length; i++) {
+            final char c = i < length ? content.charAt(i) : ' ';
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (depth == 0 && c == ',' && comma < 0) {
+                comma = i;
+            } else if (depth == 0
+                    && (i == length || Character.isWhitespace(c) && i + 4 < length
+                            && content.regionMatches(true, i + 1, "and", 0, 3)
+                            && Character.isWhitespace(content.charAt(i + 4)))) {
+                lastName(content, nameBegin, i, comma, keys);
+                nameBegin = i + 5;
+                comma = -1;
+                i += 4;
+            }
+        }
+    }
+
+    private static void lastName(String content, int begin, int end, int comma, List<String> keys) {
+        if (comma >= 0) {
+            end = comma;
+        } else {
+            // the last word, at brace level 0.
+            while (end > begin && Character.isWhitespace(content.charAt(end - 1)))
+                end--;
+            int depth = 0, i = end;
+            while (i > begin) {
+                final char c = content.charAt(i - 1);
+                if (c == '}')
+                    depth++;
+                else if (c == '{')
+                    depth--;
+                else if (depth == 0 && Character.isWhitespace(c))
+                    break;
+                i--;
+            }
+            begin = i;
+        }
+        final String name = normalize(content.substring(begin, end));
+        if (name.length() > 0 && !name.equals("others"))
+            keys.add(name);
+    }
+}
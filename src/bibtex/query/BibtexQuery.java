@@ -0,0 +1,383 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package bibtex.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import bibtex.dom.BibtexAbstractEntry;
+import bibtex.dom.BibtexAbstractValue;
+import bibtex.dom.BibtexEntry;
+import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexMultipleValues;
+import bibtex.dom.BibtexString;
+
+/**
+ * A predicate over the entries of a BibtexFile. Queries are built from the
+ * static methods of this class, e.g.
+ *
+ * <pre>
+ * BibtexQuery query = BibtexQuery.and(new BibtexQuery[] { BibtexQuery.entryType(&quot;inproceedings&quot;),
+ *         BibtexQuery.year(2010, 2014), BibtexQuery.author(&quot;Henkel&quot;), BibtexQuery.field(&quot;booktitle&quot;, &quot;ICSE&quot;) });
+ * List result = query.execute(bibtexFile);
+ * </pre>
+ *
+ * The arguments are normalized (see BibtexEntryIndex) when the query is
+ * built, so a query can be executed many times. execute() uses the
+ * BibtexEntryIndex objects of the file: for a conjunction, it looks up the
+ * most selective indexed term and checks the rest of the terms on its entries
+ * only. Without a suitable index, it scans the entries.
+ */
+public abstract class BibtexQuery {
+
+    BibtexQuery() {
+    }
+
+    /**
+     * @return true if entry satisfies this query.
+     */
+    public abstract boolean matches(BibtexEntry entry);
+
+    /**
+     * @return an upper bound for the number of entries that lookup() would
+     *         return, or -1 if file doesn't have the indexes for this query.
+     */
+    abstract int estimate(BibtexFile file);
+
+    /**
+     * This scans the entries of file, the queries that can use an index
+     * override it.
+     *
+     * @return the entries of file that match this query, in no particular
+     *         order.
+     */
+    Collection<BibtexEntry> lookup(BibtexFile file) {
+        return scan(file);
+    }
+
+    /**
+     * @return the entries of file that match this query, in file order.
+     */
+    private List<BibtexEntry> scan(BibtexFile file) {
+        final ArrayList<BibtexEntry> result = new ArrayList<BibtexEntry>();
+        for (BibtexEntry entry : file.getBibtexEntries()) {
+            if (matches(entry))
+                result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * @return the entries of file that match this query, in file order.
+     */
+    public final List<BibtexEntry> execute(BibtexFile file) {
+
+        assert file != null : "file parameter may not be null.";
+
+        if (estimate(file) < 0)
+            return scan(file);
+        final ArrayList<BibtexEntry> result = new ArrayList<BibtexEntry>(lookup(file));
+        // the indexes don't keep the entries in order, but we know where they
+        // are.
+        final List<BibtexAbstractEntry> entries = file.getEntries();
+        final long[] order = new long[result.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = (long) entries.indexOf(result.get(i)) << 32 | i;
+        Arrays.sort(order);
+        final ArrayList<BibtexEntry> sorted = new ArrayList<BibtexEntry>(order.length);
+        for (int i = 0; i < order.length; i++)
+            sorted.add(result.get((int) order[i]));
+        return sorted;
+    }
+
+    /**
+     * @return the entries with the given entry type (case insensitive).
+     */
+    public static BibtexQuery entryType(String entryType) {
+        assert entryType != null : "entryType parameter may not be null.";
+
+        return new IndexedTerm(BibtexEntryIndex.ENTRY_TYPE, entryType);
+    }
+
+    /**
+     * @return the entries from the years fromYear to toYear, both inclusive.
+     */
+    public static BibtexQuery year(int fromYear, int toYear) {
+        assert 0 <= fromYear && fromYear <= toYear && toYear <= 9999 : "fromYear and toYear must be a range of years.";
+
+        return new YearRange(fromYear, toYear);
+    }
+
+    /**
+     * @return the entries with an author with the given last name (case
+     *         insensitive).
+     */
+    public static BibtexQuery author(String lastName) {
+        assert lastName != null : "lastName parameter may not be null.";
+
+        return new IndexedTerm(BibtexEntryIndex.AUTHOR, lastName);
+    }
+
+    /**
+     * @return the entries that crossreference the entry with the given key.
+     */
+    public static BibtexQuery crossref(String parentKey) {
+        assert parentKey != null : "parentKey parameter may not be null.";
+
+        return new IndexedTerm(BibtexEntryIndex.CROSSREF, parentKey);
+    }
+
+    /**
+     * @return the entries with the given dblpkey field.
+     */
+    public static BibtexQuery dblpKey(String dblpKey) {
+        assert dblpKey != null : "dblpKey parameter may not be null.";
+
+        return new IndexedTerm(BibtexEntryIndex.DBLP_KEY, dblpKey);
+    }
+
+    /**
+     * This is never answered from an index.
+     *
+     * @return the entries whose field has the given content, ignoring case and
+     *         curly braces.
+     */
+    public static BibtexQuery field(String fieldName, String content) {
+        assert fieldName != null : "fieldName parameter may not be null.";
+        assert content != null : "content parameter may not be null.";
+
+        return new FieldTerm(fieldName.toLowerCase(), BibtexEntryIndex.normalize(content));
+    }
+
+    /**
+     * @return the entries that match all of the queries.
+     */
+    public static BibtexQuery and(BibtexQuery[] queries) {
+        assert queries != null && queries.length > 0 : "queries parameter must have at least one element.";
+
+        return queries.length == 1 ? queries[0] : new And(queries.clone());
+    }
+
+    /**
+     * @return the entries that match at least one of the queries.
+     */
+    public static BibtexQuery or(BibtexQuery[] queries) {
+        assert queries != null && queries.length > 0 : "queries parameter must have at least one element.";
+
+        return queries.length == 1 ? queries[0] : new Or(queries.clone());
+    }
+
+    /**
+     * @return the entries that don't match query. This is never answered from
+     *         an index.
+     */
+    public static BibtexQuery not(BibtexQuery query) {
+        assert query != null : "query parameter may not be null.";
+
+        return new Not(query);
+    }
+
+    private static final class IndexedTerm extends BibtexQuery {
+
+        private final int kind;
+
+        private final String key;
+
+        IndexedTerm(int kind, String key) {
+            this.kind = kind;
+            this.key = BibtexEntryIndex.normalize(key);
+        }
+
+        public boolean matches(BibtexEntry entry) {
+            final ArrayList<String> keys = new ArrayList<String>(4);
+            BibtexEntryIndex.keysOf(kind, entry, keys);
+            return keys.contains(key);
+        }
+
+        int estimate(BibtexFile file) {
+            final BibtexEntryIndex index = BibtexEntryIndex.find(file, kind);
+            return index == null ? -1 : index.count(key);
+        }
+
+        Collection<BibtexEntry> lookup(BibtexFile file) {
+            return BibtexEntryIndex.find(file, kind).lookup(key);
+        }
+    }
+
+    private static final class YearRange extends BibtexQuery {
+
+        private final String fromYear, toYear;
+
+        YearRange(int fromYear, int toYear) {
+            this.fromYear = format(fromYear);
+            this.toYear = format(toYear);
+        }
+
+        private static String format(int year) {
+            final String digits = Integer.toString(year);
+            return "0000".substring(digits.length()) + digits;
+        }
+
+        public boolean matches(BibtexEntry entry) {
+            final ArrayList<String> years = new ArrayList<String>(1);
+            BibtexEntryIndex.keysOf(BibtexEntryIndex.YEAR, entry, years);
+            for (int i = 0; i < years.size(); i++) {
+                final String year = years.get(i);
+                if (year.compareTo(fromYear) >= 0 && year.compareTo(toYear) <= 0)
+                    return true;
+            }
+            return false;
+        }
+
+        int estimate(BibtexFile file) {
+            final BibtexEntryIndex index = BibtexEntryIndex.find(file, BibtexEntryIndex.YEAR);
+            return index == null ? -1 : index.countRange(fromYear, toYear);
+        }
+
+        Collection<BibtexEntry> lookup(BibtexFile file) {
+            return BibtexEntryIndex.find(file, BibtexEntryIndex.YEAR).lookupRange(fromYear, toYear);
+        }
+    }
+
+    private static final class FieldTerm extends BibtexQuery {
+
+        private final String fieldName, content;
+
+        FieldTerm(String fieldName, String content) {
+            this.fieldName = fieldName;
+            this.content = content;
+        }
+
+        public boolean matches(BibtexEntry entry) {
+            final BibtexAbstractValue value = entry.getFieldValue(fieldName);
+            if (value instanceof BibtexMultipleValues) {
+                for (Iterator<?> it = ((BibtexMultipleValues) value).getValues().iterator(); it.hasNext();) {
+                    if (matches((BibtexAbstractValue) it.next()))
+                        return true;
+                }
+                return false;
+            }
+            return matches(value);
+        }
+
+        private boolean matches(BibtexAbstractValue value) {
+            return value instanceof BibtexString
+                    && BibtexEntryIndex.normalize(((BibtexString) value).getContent()).equals(content);
+        }
+
+        int estimate(BibtexFile file) {
+            return -1;
+        }
+    }
+
+    private static final class And extends BibtexQuery {
+
+        private final BibtexQuery[] queries;
+
+        And(BibtexQuery[] queries) {
+            this.queries = queries;
+        }
+
+        public boolean matches(BibtexEntry entry) {
+            for (int i = 0; i < queries.length; i++) {
+                if (!queries[i].matches(entry))
+                    return false;
+            }
+            return true;
+        }
+
+        int estimate(BibtexFile file) {
+            int best = -1;
+            for (int i = 0; i < queries.length; i++) {
+                final int estimate = queries[i].estimate(file);
+                if (estimate >= 0 && (best < 0 || estimate < best))
+                    best = estimate;
+            }
+            return best;
+        }
+
+        Collection<BibtexEntry> lookup(BibtexFile file) {
+            int best = -1, bestEstimate = -1;
+            for (int i = 0; i < queries.length; i++) {
+                final int estimate = queries[i].estimate(file);
+                if (estimate >= 0 && (best < 0 || estimate < bestEstimate)) {
+                    best = i;
+                    bestEstimate = estimate;
+                }
+            }
+            if (best < 0)
+                return super.lookup(file);
+            // the most selective query narrows it down, the others check.
+            final ArrayList<BibtexEntry> result = new ArrayList<BibtexEntry>();
+            candidates: for (BibtexEntry entry : queries[best].lookup(file)) {
+                for (int i = 0; i < queries.length; i++) {
+                    if (i != best && !queries[i].matches(entry))
+                        continue candidates;
+                }
+                result.add(entry);
+            }
+            return result;
+        }
+    }
+
+    private static final class Or extends BibtexQuery {
+
+        private final BibtexQuery[] queries;
+
+        Or(BibtexQuery[] queries) {
+            this.queries = queries;
+        }
+
+        public boolean matches(BibtexEntry entry) {
+            for (int i = 0; i < queries.length; i++) {
+                if (queries[i].matches(entry))
+                    return true;
+            }
+            return false;
+        }
+
+        int estimate(BibtexFile file) {
+            int sum = 0;
+            for (int i = 0; i < queries.length; i++) {
+                final int estimate = queries[i].estimate(file);
+                if (estimate < 0)
+                    return -1;
+                sum += estimate;
+            }
+            return sum;
+        }
+
+        Collection<BibtexEntry> lookup(BibtexFile file) {
+            // an entry may match several queries.
+            final Set<BibtexEntry> union = Collections.newSetFromMap(new IdentityHashMap<BibtexEntry, Boolean>());
+            for (int i = 0; i < queries.length; i++)
+                union.addAll(queries[i].lookup(file));
+            return union;
+        }
+    }
+
+    private static final class Not extends BibtexQuery {
+
+        private final BibtexQuery query;
+
+        Not(BibtexQuery query) {
+            this.query = query;
+        }
+
+        public boolean matches(BibtexEntry entry) {
+            return !query.matches(entry);
+        }
+
+        int estimate(BibtexFile file) {
+            return -1;
+        }
+    }
+}
@@ -1,15 +1,14 @@
 package nl.joosbuijs.bibtex;
 
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.HashSet;
+import java.nio.charset.Charset;
 import java.util.Scanner;
-import java.util.Set;
 import java.util.Vector;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,6 +22,7 @@ import org.joda.time.DateTime;
 import bibtex.dom.BibtexAbstractEntry;
 import bibtex.dom.BibtexEntry;
 import bibtex.dom.BibtexFile;
+import bibtex.dom.BibtexWriter;
 import bibtex.parser.BibtexParser;
 import bibtex.parser.ParseException;
 
@@ -141,9 +141,15 @@ public class BibtexCleaner {
     public static HashMap<String, BibtexEntry> knownEntries = new HashMap<String, BibtexEntry>();
     public static int AUTHORS_IN_QUERY_MAX_ELEMENTS = 7; //manifesto causes a HTTP 414 error: URL too long :D
 
-    public static void SaveFiles(String sourceBibFile) throws FileNotFoundException {
+    public static void SaveFiles(String sourceBibFile) throws IOException {
 	String newBibFile = sourceBibFile.replace(".bib", "_cleaned.bib");
-	newbibtex.printBibtex(new PrintWriter(new File(newBibFile)));
+	BibtexWriter writer = new BibtexWriter(new FileOutputStream(newBibFile).getChannel(), Charset.defaultCharset());
+	writer.setParallelism(Runtime.getRuntime().availableProcessors());
+	try {
+	    writer.write(newbibtex);
+	} finally {
+	    writer.close();
+	}
     }
 
     public static List<BibtexEntry> prepareEntryList(String sourceBibFile, String f) throws ParseException, FileNotFoundException, IOException {
@@ -154,27 +160,18 @@ public class BibtexCleaner {
 
 	// load good entry list
 	BibtexFile rfile = new BibtexFile();
-	Set<String> goodEntries = new HashSet<String>();
 	(new BibtexParser(false)).parse(rfile, new FileReader(f));
-	goodEntries.clear();
-	for (BibtexAbstractEntry potentialEntry : rfile.getEntries()) {
-	    if (potentialEntry instanceof BibtexEntry) {
-		goodEntries.add(((BibtexEntry) potentialEntry).getEntryKey().toLowerCase());
-	    }
-	}
 	System.out.println("loaded filter Bibtex file " + f);
 
 	// merge duplicates and filter out
 	HashMap<String, BibtexEntry> subEntries = new HashMap<String, BibtexEntry>();
-	for (BibtexAbstractEntry potentialEntry : file.getEntries()) {
-	    if (potentialEntry instanceof BibtexEntry) {
-		String k = ((BibtexEntry)potentialEntry).getEntryKey().toLowerCase();
-		if (goodEntries.contains(k)) {
-		    if (subEntries.get(k) != null) {
-			mergeEntries(subEntries.get(k), ((BibtexEntry)potentialEntry));
-		    } else {
-			subEntries.put(k, (BibtexEntry)potentialEntry);
-		    }
+	for (BibtexEntry potentialEntry : file.getBibtexEntries()) {
+	    String k = potentialEntry.getEntryKey().toLowerCase();
+	    if (rfile.getEntry(k) != null) {
+		if (subEntries.get(k) != null) {
+		    mergeEntries(subEntries.get(k), potentialEntry);
+		} else {
+		    subEntries.put(k, potentialEntry);
 		}
 	    }
 	}
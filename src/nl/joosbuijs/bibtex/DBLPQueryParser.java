@@ -3,7 +3,6 @@ package nl.joosbuijs.bibtex;
 import java.io.IOException;
 import java.io.StringReader;
 import java.net.SocketTimeoutException;
-import java.util.Iterator;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -146,12 +145,8 @@ public class DBLPQueryParser {
 			e.printStackTrace();
 		}
 
-		for (Iterator it = bibtexFile.getEntries().iterator(); it.hasNext();) {
-			Object potentialEntry = it.next();
-			if (!(potentialEntry instanceof BibtexEntry))
-				continue;
-			return (BibtexEntry) potentialEntry;
-		}
+		if (!bibtexFile.getBibtexEntries().isEmpty())
+			return bibtexFile.getBibtexEntries().get(0);
 
 		return null;
 	}
@@ -318,11 +313,8 @@ public class DBLPQueryParser {
 				} catch (ParseException e) {
 					e.printStackTrace();
 				}
-				for (Iterator it = bibtexFile.getEntries().iterator(); it.hasNext();) {
-					Object potentialEntry = it.next();
-					if (!(potentialEntry instanceof BibtexEntry))
-						continue;
-					firstEntry = (BibtexEntry) potentialEntry;
+				for (BibtexEntry potentialEntry : bibtexFile.getBibtexEntries()) {
+					firstEntry = potentialEntry;
 				}
 			}
 